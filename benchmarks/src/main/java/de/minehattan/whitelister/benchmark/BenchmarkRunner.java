@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Runs the benchmarks once for each number of concurrent threads and writes
+ * the results, including the latency percentiles of the sample time mode, to
+ * one JSON file per thread count.
+ */
+public final class BenchmarkRunner {
+
+  private static final int[] THREADS = {1, 4, 16, 64};
+  private static final String DEFAULT_INCLUDE = "PreLoginBenchmark|WhitelistManagerServiceBenchmark";
+
+  /**
+   * Block initialization of this class.
+   */
+  private BenchmarkRunner() {
+  }
+
+  /**
+   * Runs the benchmarks.
+   *
+   * @param args an optional regular expression that selects the benchmarks, followed by an optional directory
+   *             for the results
+   * @throws RunnerException if a benchmark fails
+   * @throws IOException     if the directory for the results cannot be created
+   */
+  public static void main(String[] args) throws RunnerException, IOException {
+    String include = args.length > 0 ? args[0] : DEFAULT_INCLUDE;
+    File resultDir = new File(args.length > 1 ? args[1] : "results");
+    if (!resultDir.isDirectory() && !resultDir.mkdirs()) {
+      throw new IOException("Failed to create the directory '" + resultDir + "'.");
+    }
+
+    for (int threads : THREADS) {
+      File result = new File(resultDir, "threads-" + threads + ".json");
+      new Runner(new OptionsBuilder().include(include).threads(threads).resultFormat(ResultFormatType.JSON)
+                     .result(result.getPath()).build()).run();
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.benchmark;
+
+import de.minehattan.whitelister.manager.CachingWhitelistManager;
+import de.minehattan.whitelister.manager.ConnectionPool;
+import de.minehattan.whitelister.manager.LocalFileWhitelistManager;
+import de.minehattan.whitelister.manager.MySQLWhitelistManager;
+import de.minehattan.whitelister.manager.UUIDBinaryConverter;
+import de.minehattan.whitelister.manager.WhitelistManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whitelist with generated entries, stored in one of the backends.
+ *
+ * <p>The database backends use an embedded H2 database in MySQL mode, so the
+ * benchmarks measure the plugin's own code and the JDBC round trip, but no
+ * network.</p>
+ */
+class GeneratedWhitelist {
+
+  /**
+   * The MySQL backend on an embedded database.
+   */
+  static final String DATABASE = "database";
+
+  /**
+   * The MySQL backend on an embedded database, cached in memory.
+   */
+  static final String CACHED = "cached";
+
+  /**
+   * The local file backend.
+   */
+  static final String FILE = "file";
+
+  private static final String TABLE = "whitelist";
+  private static final int INSERT_BATCH_SIZE = 10000;
+  private static final int POOL_SIZE = 16;
+
+  private final UUID[] uniqueIds;
+  private final String[] names;
+  private final WhitelistManager manager;
+  private final File directory;
+
+  /**
+   * Generates the given number of entries and stores them in the given
+   * backend.
+   *
+   * @param backend one of {@link #DATABASE}, {@link #CACHED} or {@link #FILE}
+   * @param size    the number of entries
+   * @throws SQLException if the database cannot be populated
+   * @throws IOException  if the files cannot be written
+   */
+  GeneratedWhitelist(String backend, int size) throws SQLException, IOException {
+    if (!DATABASE.equals(backend) && !CACHED.equals(backend) && !FILE.equals(backend)) {
+      throw new IllegalArgumentException("Unknown backend '" + backend + "'.");
+    }
+    uniqueIds = new UUID[size];
+    names = new String[size];
+    Random random = new Random(size);
+    for (int i = 0; i < size; i++) {
+      uniqueIds[i] = new UUID(random.nextLong(), random.nextLong());
+      names[i] = "Player" + i;
+    }
+
+    directory = File.createTempFile("whitelister-benchmark", "");
+    if (!directory.delete() || !directory.mkdir()) {
+      throw new IOException("Failed to create the directory '" + directory + "'.");
+    }
+
+    if (FILE.equals(backend)) {
+      LocalFileWhitelistManager fileManager =
+          new LocalFileWhitelistManager(new File(directory, "whitelist.dat"), new File(directory, "whitelist.journal"),
+                                        Integer.MAX_VALUE, TimeUnit.DAYS.toMillis(1));
+      Map<UUID, String> entries = new LinkedHashMap<UUID, String>();
+      for (int i = 0; i < size; i++) {
+        entries.put(uniqueIds[i], names[i]);
+      }
+      fileManager.addAll(entries);
+      fileManager.compact();
+      manager = fileManager;
+      return;
+    }
+
+    String dsn = "jdbc:h2:" + new File(directory, "whitelist").getAbsolutePath() + ";MODE=MySQL";
+    MySQLWhitelistManager databaseManager =
+        new MySQLWhitelistManager(new ConnectionPool(dsn, "sa", "", POOL_SIZE, POOL_SIZE, TimeUnit.MINUTES.toMillis(5),
+                                                     TimeUnit.SECONDS.toMillis(30), 5000), TABLE);
+    databaseManager.updateSchema();
+    populate(dsn);
+    manager = CACHED.equals(backend) ? new CachingWhitelistManager(databaseManager) : databaseManager;
+  }
+
+  /**
+   * Inserts all entries into the table in the given database.
+   *
+   * @param dsn the DSN of the database
+   * @throws SQLException if the database cannot be populated
+   */
+  private void populate(String dsn) throws SQLException {
+    Connection conn = DriverManager.getConnection(dsn, "sa", "");
+    try {
+      conn.setAutoCommit(false);
+      PreparedStatement stmnt =
+          conn.prepareStatement("INSERT INTO " + TABLE + " (`minecraft-uuid`, `minecraft-name`, "
+                                + "`minecraft-name-lower`) VALUES (?, ?, ?);");
+      for (int i = 0; i < uniqueIds.length; i++) {
+        stmnt.setBytes(1, UUIDBinaryConverter.toBytes(uniqueIds[i]));
+        stmnt.setString(2, names[i]);
+        stmnt.setString(3, names[i].toLowerCase(Locale.ENGLISH));
+        stmnt.addBatch();
+        if ((i + 1) % INSERT_BATCH_SIZE == 0) {
+          stmnt.executeBatch();
+        }
+      }
+      stmnt.executeBatch();
+      stmnt.close();
+      conn.commit();
+    } finally {
+      conn.close();
+    }
+  }
+
+  /**
+   * Gets the number of entries.
+   *
+   * @return the number of entries
+   */
+  int size() {
+    return uniqueIds.length;
+  }
+
+  /**
+   * Gets the UUID of the entry with the given index.
+   *
+   * @param index the index
+   * @return the UUID
+   */
+  UUID getUniqueId(int index) {
+    return uniqueIds[index];
+  }
+
+  /**
+   * Gets the name of the entry with the given index.
+   *
+   * @param index the index
+   * @return the name
+   */
+  String getName(int index) {
+    return names[index];
+  }
+
+  /**
+   * Gets the manager that holds the entries.
+   *
+   * @return the WhitelistManager
+   */
+  WhitelistManager getManager() {
+    return manager;
+  }
+
+  /**
+   * Closes the manager and deletes all files.
+   */
+  void close() {
+    manager.close();
+    delete(directory);
+  }
+
+  /**
+   * Deletes the given file or directory recursively.
+   *
+   * @param file the file
+   */
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    if (!file.delete()) {
+      file.deleteOnExit();
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.benchmark;
+
+import de.minehattan.whitelister.LoginGate;
+import de.minehattan.whitelister.LoginGate.Decision;
+import de.minehattan.whitelister.manager.NameUpdateQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the whole decision that is made when a player tries to join, as
+ * done by {@link LoginGate}, against each backend.
+ *
+ * <p>The number of concurrent logins is set by the number of benchmark
+ * threads, see {@link BenchmarkRunner}.</p>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class PreLoginBenchmark {
+
+  /**
+   * Allows a whitelisted player to join.
+   *
+   * @param whitelist the whitelist
+   * @param logins    the logins of the current thread
+   * @return the decision
+   */
+  @Benchmark
+  public Decision whitelisted(Whitelist whitelist, Logins logins) {
+    int index = logins.next(whitelist.entries.size());
+    return whitelist.gate.check(whitelist.entries.getUniqueId(index), whitelist.entries.getName(index));
+  }
+
+  /**
+   * Denies a player who is not on the whitelist.
+   *
+   * @param whitelist the whitelist
+   * @param logins    the logins of the current thread
+   * @return the decision
+   */
+  @Benchmark
+  public Decision unknown(Whitelist whitelist, Logins logins) {
+    return whitelist.gate.check(logins.nextUnknown(), "Stranger");
+  }
+
+  /**
+   * The whitelist that is shared by all threads.
+   */
+  @State(Scope.Benchmark)
+  public static class Whitelist {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({GeneratedWhitelist.DATABASE, GeneratedWhitelist.CACHED, GeneratedWhitelist.FILE})
+    public String backend;
+
+    private GeneratedWhitelist entries;
+    private NameUpdateQueue nameUpdates;
+    private LoginGate gate;
+
+    /**
+     * Creates the whitelist.
+     *
+     * @throws SQLException if the database cannot be populated
+     * @throws IOException  if the files cannot be written
+     */
+    @Setup(Level.Trial)
+    public void setup() throws SQLException, IOException {
+      entries = new GeneratedWhitelist(backend, size);
+      nameUpdates = new NameUpdateQueue(entries.getManager(), 1000, 2000);
+      gate = new LoginGate(entries.getManager(), nameUpdates, false);
+    }
+
+    /**
+     * Closes the whitelist.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      nameUpdates.close();
+      entries.close();
+    }
+  }
+
+  /**
+   * The logins made by one thread.
+   */
+  @State(Scope.Thread)
+  public static class Logins {
+
+    private static final int UNKNOWN_COUNT = 1024;
+
+    private final Random random = new Random();
+    private final UUID[] unknown = new UUID[UNKNOWN_COUNT];
+    private int unknownIndex;
+
+    /**
+     * Generates the UUIDs that are not on the whitelist.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+      for (int i = 0; i < UNKNOWN_COUNT; i++) {
+        unknown[i] = UUID.randomUUID();
+      }
+    }
+
+    /**
+     * Picks a random entry of the whitelist.
+     *
+     * @param size the number of entries
+     * @return the index of the entry
+     */
+    int next(int size) {
+      return random.nextInt(size);
+    }
+
+    /**
+     * Picks the next UUID that is not on the whitelist.
+     *
+     * @return the UUID
+     */
+    UUID nextUnknown() {
+      unknownIndex = (unknownIndex + 1) & (UNKNOWN_COUNT - 1);
+      return unknown[unknownIndex];
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.benchmark;
+
+import de.minehattan.whitelister.manager.UUIDBinaryConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the array and buffer variants of {@link UUIDBinaryConverter}
+ * against the former implementation that wrapped every array in a
+ * {@link ByteBuffer}.
+ *
+ * <p>Run with {@code -prof gc} to see the allocation rate per operation.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UUIDBinaryConverterBenchmark {
+
+  private static final int COUNT = 1024;
+
+  private final UUID[] uuids = new UUID[COUNT];
+  private final byte[][] arrays = new byte[COUNT][];
+  private final byte[] packed = new byte[COUNT * UUIDBinaryConverter.UUID_BYTES];
+  private final byte[] scratch = new byte[UUIDBinaryConverter.UUID_BYTES];
+  private ByteBuffer buffer;
+  private int index;
+
+  /**
+   * Creates the random UUIDs and their binary forms.
+   */
+  @Setup
+  public void setup() {
+    buffer = ByteBuffer.allocateDirect(packed.length);
+    for (int i = 0; i < COUNT; i++) {
+      uuids[i] = UUID.randomUUID();
+      arrays[i] = UUIDBinaryConverter.toBytes(uuids[i]);
+      UUIDBinaryConverter.toBytes(uuids[i], packed, i * UUIDBinaryConverter.UUID_BYTES);
+      UUIDBinaryConverter.toBuffer(uuids[i], buffer, i * UUIDBinaryConverter.UUID_BYTES);
+    }
+  }
+
+  /**
+   * Advances to the next UUID.
+   *
+   * @return the index of the next UUID
+   */
+  private int next() {
+    index = (index + 1) & (COUNT - 1);
+    return index;
+  }
+
+  @Benchmark
+  public byte[] toBytesLegacy() {
+    UUID uuid = uuids[next()];
+    ByteBuffer byteBuffer = ByteBuffer.wrap(new byte[16]);
+    byteBuffer.putLong(uuid.getMostSignificantBits());
+    byteBuffer.putLong(uuid.getLeastSignificantBits());
+    return byteBuffer.array();
+  }
+
+  @Benchmark
+  public byte[] toBytes() {
+    return UUIDBinaryConverter.toBytes(uuids[next()]);
+  }
+
+  @Benchmark
+  public byte[] toBytesScratch() {
+    UUIDBinaryConverter.toBytes(uuids[next()], scratch, 0);
+    return scratch;
+  }
+
+  /**
+   * Converts an UUID into a direct buffer.
+   *
+   * @return the result
+   */
+  @Benchmark
+  public ByteBuffer toBuffer() {
+    int current = next();
+    UUIDBinaryConverter.toBuffer(uuids[current], buffer, current * UUIDBinaryConverter.UUID_BYTES);
+    return buffer;
+  }
+
+  /**
+   * Reads an UUID the way the former implementation did.
+   *
+   * @return the result
+   */
+  @Benchmark
+  public UUID fromBytesLegacy() {
+    ByteBuffer byteBuffer = ByteBuffer.wrap(arrays[next()]);
+    long mostSignificant = byteBuffer.getLong();
+    long leastSignificant = byteBuffer.getLong();
+    return new UUID(mostSignificant, leastSignificant);
+  }
+
+  /**
+   * Reads an UUID from its own array.
+   *
+   * @return the result
+   */
+  @Benchmark
+  public UUID fromBytes() {
+    return UUIDBinaryConverter.fromBytes(arrays[next()]);
+  }
+
+  /**
+   * Reads an UUID from an array that holds all UUIDs.
+   *
+   * @return the result
+   */
+  @Benchmark
+  public UUID fromBytesOffset() {
+    return UUIDBinaryConverter.fromBytes(packed, next() * UUIDBinaryConverter.UUID_BYTES);
+  }
+
+  /**
+   * Reads an UUID from a direct buffer.
+   *
+   * @return the result
+   */
+  @Benchmark
+  public UUID fromBuffer() {
+    return UUIDBinaryConverter.fromBuffer(buffer, next() * UUIDBinaryConverter.UUID_BYTES);
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.benchmark;
+
+import com.google.common.collect.ImmutableMap;
+
+import de.minehattan.whitelister.manager.HashWhitelistIndex;
+import de.minehattan.whitelister.manager.PackedWhitelistIndex;
+import de.minehattan.whitelister.manager.WhitelistIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares lookups in a {@link PackedWhitelistIndex} against a
+ * {@link HashWhitelistIndex} and a pair of {@link ImmutableMap}s, as returned
+ * by {@code getWhitelist()}.
+ *
+ * <p>The retained heap of each structure is measured once per trial by
+ * comparing the used heap after a full collection before and after it has
+ * been built, and is printed as bytes per entry.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class WhitelistIndexBenchmark {
+
+  /**
+   * A pair of ImmutableMaps.
+   */
+  static final String MAP = "map";
+
+  /**
+   * A {@link HashWhitelistIndex}.
+   */
+  static final String HASH = "hash";
+
+  /**
+   * A {@link PackedWhitelistIndex}.
+   */
+  static final String PACKED = "packed";
+
+  /**
+   * Looks up the name of a whitelisted UUID.
+   *
+   * @param whitelist the whitelist
+   * @param lookups   the lookups of the current thread
+   * @return the name
+   */
+  @Benchmark
+  public String getName(Whitelist whitelist, Lookups lookups) {
+    UUID uniqueId = whitelist.uniqueIds[lookups.next(whitelist.size)];
+    return whitelist.index != null ? whitelist.index.getName(uniqueId) : whitelist.namesById.get(uniqueId);
+  }
+
+  /**
+   * Looks up the name of a UUID that is not whitelisted.
+   *
+   * @param whitelist the whitelist
+   * @param lookups   the lookups of the current thread
+   * @return {@code null}
+   */
+  @Benchmark
+  public String getNameUnknown(Whitelist whitelist, Lookups lookups) {
+    UUID uniqueId = whitelist.unknownIds[lookups.next(whitelist.unknownIds.length)];
+    return whitelist.index != null ? whitelist.index.getName(uniqueId) : whitelist.namesById.get(uniqueId);
+  }
+
+  /**
+   * Looks up the UUID of a whitelisted name.
+   *
+   * @param whitelist the whitelist
+   * @param lookups   the lookups of the current thread
+   * @return the UUID
+   */
+  @Benchmark
+  public UUID getUniqueId(Whitelist whitelist, Lookups lookups) {
+    String name = whitelist.names[lookups.next(whitelist.size)];
+    return whitelist.index != null ? whitelist.index.getUniqueId(name) : whitelist.idsByName.get(name);
+  }
+
+  /**
+   * The whitelist that is shared by all threads.
+   */
+  @State(Scope.Benchmark)
+  public static class Whitelist {
+
+    private static final int UNKNOWN_IDS = 1024;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({MAP, HASH, PACKED})
+    public String structure;
+
+    private UUID[] uniqueIds;
+    private UUID[] unknownIds;
+    private String[] names;
+    private WhitelistIndex index;
+    private ImmutableMap<UUID, String> namesById;
+    private ImmutableMap<String, UUID> idsByName;
+
+    /**
+     * Generates the entries, builds the structure and prints its footprint.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+      Random random = new Random(size);
+      uniqueIds = new UUID[size];
+      names = new String[size];
+      for (int i = 0; i < size; i++) {
+        uniqueIds[i] = new UUID(random.nextLong(), random.nextLong());
+        names[i] = "Player" + i;
+      }
+      unknownIds = new UUID[UNKNOWN_IDS];
+      for (int i = 0; i < UNKNOWN_IDS; i++) {
+        unknownIds[i] = new UUID(random.nextLong(), random.nextLong());
+      }
+
+      // the lookup keys are kept anyway, so the footprint covers copies of them
+      long before = usedHeap();
+      if (MAP.equals(structure)) {
+        ImmutableMap.Builder<UUID, String> byId = ImmutableMap.builder();
+        ImmutableMap.Builder<String, UUID> byName = ImmutableMap.builder();
+        for (int i = 0; i < size; i++) {
+          UUID uniqueId = new UUID(uniqueIds[i].getMostSignificantBits(), uniqueIds[i].getLeastSignificantBits());
+          String name = new String(names[i]);
+          byId.put(uniqueId, name);
+          byName.put(name, uniqueId);
+        }
+        namesById = byId.build();
+        idsByName = byName.build();
+      } else {
+        index = HASH.equals(structure) ? new HashWhitelistIndex() : new PackedWhitelistIndex();
+        for (int i = 0; i < size; i++) {
+          UUID uniqueId = new UUID(uniqueIds[i].getMostSignificantBits(), uniqueIds[i].getLeastSignificantBits());
+          index.put(uniqueId, new String(names[i]));
+        }
+      }
+      long footprint = usedHeap() - before;
+      System.out.println();
+      System.out.println(structure + " with " + size + " entries: " + footprint / size + " bytes per entry");
+    }
+
+    /**
+     * Gets the used heap after a full collection.
+     *
+     * @return the used heap in bytes
+     */
+    private static long usedHeap() {
+      MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+      for (int i = 0; i < 3; i++) {
+        System.gc();
+      }
+      return memory.getHeapMemoryUsage().getUsed();
+    }
+  }
+
+  /**
+   * The lookups made by one thread.
+   */
+  @State(Scope.Thread)
+  public static class Lookups {
+
+    private final Random random = new Random();
+
+    /**
+     * Picks a random entry.
+     *
+     * @param size the number of entries
+     * @return the index of the entry
+     */
+    int next(int size) {
+      return random.nextInt(size);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import com.sk89q.squirrelid.Profile;
+
+import de.minehattan.whitelister.WhitelistManagerService;
+import de.minehattan.whitelister.manager.MySQLWhitelistManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast {@link WhitelistManagerService} resolves names against
+ * each backend.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class WhitelistManagerServiceBenchmark {
+
+  /**
+   * Resolves a single name.
+   *
+   * @param whitelist the whitelist
+   * @param lookups   the lookups of the current thread
+   * @return the profile
+   * @throws IOException          never
+   * @throws InterruptedException never
+   */
+  @Benchmark
+  public Profile findByName(Whitelist whitelist, Lookups lookups) throws IOException, InterruptedException {
+    return whitelist.service.findByName(whitelist.entries.getName(lookups.next(whitelist.entries.size())));
+  }
+
+  /**
+   * Resolves as many names as the service handles in one request.
+   *
+   * @param whitelist the whitelist
+   * @param lookups   the lookups of the current thread
+   * @return the profiles
+   * @throws IOException          never
+   * @throws InterruptedException never
+   */
+  @Benchmark
+  public ImmutableList<Profile> findAllByName(Whitelist whitelist, Lookups lookups)
+      throws IOException, InterruptedException {
+    List<String> names = lookups.names;
+    names.clear();
+    for (int i = 0; i < MySQLWhitelistManager.LOOKUP_CHUNK_SIZE; i++) {
+      names.add(whitelist.entries.getName(lookups.next(whitelist.entries.size())));
+    }
+    return whitelist.service.findAllByName(names);
+  }
+
+  /**
+   * The whitelist that is shared by all threads.
+   */
+  @State(Scope.Benchmark)
+  public static class Whitelist {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({GeneratedWhitelist.DATABASE, GeneratedWhitelist.CACHED, GeneratedWhitelist.FILE})
+    public String backend;
+
+    private GeneratedWhitelist entries;
+    private WhitelistManagerService service;
+
+    /**
+     * Creates the whitelist.
+     *
+     * @throws SQLException if the database cannot be populated
+     * @throws IOException  if the files cannot be written
+     */
+    @Setup(Level.Trial)
+    public void setup() throws SQLException, IOException {
+      entries = new GeneratedWhitelist(backend, size);
+      service = new WhitelistManagerService(entries.getManager(), MySQLWhitelistManager.LOOKUP_CHUNK_SIZE);
+    }
+
+    /**
+     * Closes the whitelist.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      entries.close();
+    }
+  }
+
+  /**
+   * The lookups made by one thread.
+   */
+  @State(Scope.Thread)
+  public static class Lookups {
+
+    private final Random random = new Random();
+    private final List<String> names = new ArrayList<String>(MySQLWhitelistManager.LOOKUP_CHUNK_SIZE);
+
+    /**
+     * Picks a random entry of the whitelist.
+     *
+     * @param size the number of entries
+     * @return the index of the entry
+     */
+    int next(int size) {
+      return random.nextInt(size);
+    }
+  }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sk89q.commandbook.CommandBook;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+
+import javax.annotation.Nullable;
+
+/**
+ * Records login decisions and changes of the whitelist in rotating,
+ * append-only files.
+ *
+ * <p>Events are put into a bounded, lock-free ring buffer, so recording
+ * never blocks a login thread. A background thread drains the buffer and
+ * writes every event as a single tab-separated line of the time in
+ * milliseconds, the type, the UUID, the name and a detail such as the
+ * address of the player or the name of the acting admin. A sample of the
+ * events is passed to the server log as well. If the buffer is full, events
+ * are dropped and their number is written once there is room again.</p>
+ *
+ * <p>The current file is {@code audit.log}. Once it exceeds the maximum
+ * size, it is renamed to {@code audit.log.1}, older files are shifted by one
+ * and the oldest one is deleted.</p>
+ */
+class AuditLog {
+
+  /**
+   * The types of recorded events.
+   */
+  enum Type {
+    ALLOWED,
+    NOT_ON_WHITELIST,
+    NAME_CHANGED,
+    MAINTENANCE,
+    NOT_READY,
+    ADDED,
+    REMOVED,
+    IMPORTED,
+    MAINTENANCE_ENABLED,
+    MAINTENANCE_DISABLED,
+    EVENTS_DROPPED
+  }
+
+  private static final String FILE_NAME = "audit.log";
+
+  private final File directory;
+  private final long maxFileSize;
+  private final int maxFiles;
+  private final double consoleSampleRate;
+
+  private final AtomicReferenceArray<Event> slots;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  private volatile long head;
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong totalDropped = new AtomicLong();
+
+  private final ScheduledExecutorService writerThread;
+  private final Random random = new Random();
+  @Nullable
+  private Writer writer;
+  private long fileSize;
+
+  /**
+   * Initializes this log and starts the background thread.
+   *
+   * @param directory         the directory of the log files
+   * @param capacity          the minimum number of events the buffer can hold, rounded up to a power of two
+   * @param flushInterval     the time in milliseconds between two writes
+   * @param maxFileSize       the size in bytes after which the current file is rotated
+   * @param maxFiles          the number of rotated files that are kept
+   * @param consoleSampleRate the fraction of events that are passed to the server log, between {@code 0} and
+   *                          {@code 1}
+   */
+  AuditLog(File directory, int capacity, long flushInterval, long maxFileSize, int maxFiles,
+           double consoleSampleRate) {
+    this.directory = directory;
+    this.maxFileSize = maxFileSize;
+    this.maxFiles = maxFiles;
+    this.consoleSampleRate = consoleSampleRate;
+
+    int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    slots = new AtomicReferenceArray<Event>(size);
+    mask = size - 1;
+
+    writerThread =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Whitelister-Audit-%d").build());
+    writerThread.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        write();
+      }
+    }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Records an event. If the buffer is full, the event is dropped.
+   *
+   * @param type     the type of the event
+   * @param uniqueId the affected UUID - can be {@code null}
+   * @param name     the affected name - can be {@code null}
+   * @param detail   additional information - can be {@code null}
+   */
+  void record(Type type, @Nullable UUID uniqueId, @Nullable String name, @Nullable Object detail) {
+    Event event = new Event(System.currentTimeMillis(), type, uniqueId, name, detail);
+    long slot;
+    do {
+      slot = tail.get();
+      if (slot - head >= slots.length()) {
+        dropped.incrementAndGet();
+        totalDropped.incrementAndGet();
+        return;
+      }
+    } while (!tail.compareAndSet(slot, slot + 1));
+    // the writer stops at an empty slot, so the event becomes visible only once it is complete
+    slots.lazySet((int) slot & mask, event);
+  }
+
+  /**
+   * Writes all buffered events. Must only be called by one thread at a time.
+   */
+  private void write() {
+    try {
+      long lost = dropped.getAndSet(0);
+      if (lost > 0) {
+        write(new Event(System.currentTimeMillis(), Type.EVENTS_DROPPED, null, null, lost));
+      }
+      long next = head;
+      Event event;
+      while ((event = slots.get((int) next & mask)) != null) {
+        slots.set((int) next & mask, null);
+        head = ++next;
+        write(event);
+      }
+      if (writer != null) {
+        writer.flush();
+      }
+    } catch (IOException e) {
+      CommandBook.logger().log(Level.WARNING, "Failed to write the audit log.", e);
+      closeWriter();
+    }
+  }
+
+  /**
+   * Writes the given event to the current file and, if it is sampled, to
+   * the server log.
+   *
+   * @param event the event
+   * @throws IOException if the file cannot be written
+   */
+  private void write(Event event) throws IOException {
+    String line = event.toLine();
+    if (writer == null) {
+      open();
+    } else if (fileSize > 0 && fileSize + line.length() > maxFileSize) {
+      rotate();
+    }
+    writer.write(line);
+    fileSize += line.length();
+
+    if (consoleSampleRate > 0 && random.nextDouble() < consoleSampleRate) {
+      CommandBook.logger().info("[Audit] " + event);
+    }
+  }
+
+  /**
+   * Opens the current file for appending.
+   *
+   * @throws IOException if the file cannot be opened
+   */
+  private void open() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create the directory '" + directory.getAbsolutePath() + "'.");
+    }
+    File file = new File(directory, FILE_NAME);
+    fileSize = file.length();
+    writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), Charsets.UTF_8));
+  }
+
+  /**
+   * Closes the current file, shifts the rotated files by one and opens a new
+   * current file.
+   *
+   * @throws IOException if a file cannot be closed, renamed or opened
+   */
+  private void rotate() throws IOException {
+    closeWriter();
+    File oldest = new File(directory, FILE_NAME + "." + maxFiles);
+    if (oldest.exists() && !oldest.delete()) {
+      throw new IOException("Failed to delete '" + oldest.getAbsolutePath() + "'.");
+    }
+    for (int i = maxFiles; i > 0; i--) {
+      File source = new File(directory, i > 1 ? FILE_NAME + "." + (i - 1) : FILE_NAME);
+      if (source.exists() && !source.renameTo(new File(directory, FILE_NAME + "." + i))) {
+        throw new IOException("Failed to rename '" + source.getAbsolutePath() + "'.");
+      }
+    }
+    if (maxFiles == 0) {
+      new File(directory, FILE_NAME).delete();
+    }
+    open();
+  }
+
+  /**
+   * Closes the current file quietly.
+   */
+  private void closeWriter() {
+    if (writer == null) {
+      return;
+    }
+    try {
+      writer.close();
+    } catch (IOException ignore) {
+    }
+    writer = null;
+  }
+
+  /**
+   * Gets the number of events that wait to be written.
+   *
+   * @return the number of events
+   */
+  long getPending() {
+    return tail.get() - head;
+  }
+
+  /**
+   * Gets the number of events that have been dropped because the buffer was
+   * full.
+   *
+   * @return the number of events
+   */
+  long getDropped() {
+    return totalDropped.get();
+  }
+
+  /**
+   * Stops the background thread and writes all buffered events. Events
+   * recorded afterwards are not written.
+   */
+  void close() {
+    writerThread.shutdown();
+    try {
+      writerThread.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    write();
+    closeWriter();
+  }
+
+  /**
+   * A recorded event.
+   */
+  private static final class Event {
+
+    private final long time;
+    private final Type type;
+    @Nullable
+    private final UUID uniqueId;
+    @Nullable
+    private final String name;
+    @Nullable
+    private final Object detail;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param time     the time in milliseconds
+     * @param type     the type
+     * @param uniqueId the affected UUID - can be {@code null}
+     * @param name     the affected name - can be {@code null}
+     * @param detail   additional information - can be {@code null}
+     */
+    private Event(long time, Type type, @Nullable UUID uniqueId, @Nullable String name, @Nullable Object detail) {
+      this.time = time;
+      this.type = type;
+      this.uniqueId = uniqueId;
+      this.name = name;
+      this.detail = detail;
+    }
+
+    /**
+     * Formats this event as a line of the log file.
+     *
+     * @return the line, including the line break
+     */
+    private String toLine() {
+      return time + "\t" + type + "\t" + field(uniqueId) + "\t" + field(name) + "\t" + field(detail) + "\n";
+    }
+
+    /**
+     * Formats a single field of a line. Missing values are written as
+     * {@code -}, tabs and line breaks are replaced by spaces.
+     *
+     * @param value the value - can be {@code null}
+     * @return the field
+     */
+    private static String field(@Nullable Object value) {
+      return value == null ? "-" : value.toString().replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    @Override
+    public String toString() {
+      return type + " " + field(name) + " (" + field(uniqueId) + ") " + field(detail);
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the tasks of commands on a bounded pool of background threads and
+ * returns their results as futures.
+ *
+ * <p>Tasks wait in a queue of limited capacity while all threads are busy.
+ * If the queue is full, new tasks are rejected: the returned future fails
+ * with a {@link RejectedExecutionException}, so a slow database cannot pile
+ * up an unlimited number of waiting commands.</p>
+ */
+class BoundedCommandExecutor {
+
+  private final ThreadPoolExecutor executor;
+  private final int queueCapacity;
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * Initializes this executor and starts the background threads.
+   *
+   * @param threads       the number of background threads
+   * @param queueCapacity the maximum number of tasks that wait for a thread
+   */
+  BoundedCommandExecutor(int threads, int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+
+    ThreadFactory threadFactory =
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Whitelister-Command-%d").build();
+    executor =
+        new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                               new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory);
+  }
+
+  /**
+   * Runs the given task on the background threads.
+   *
+   * @param task the task
+   * @param <T>  the type of the result
+   * @return a future with the result of the task, failing with a RejectedExecutionException if the queue is full
+   */
+  <T> ListenableFuture<T> submit(Callable<T> task) {
+    ListenableFutureTask<T> future = ListenableFutureTask.create(task);
+    try {
+      executor.execute(future);
+    } catch (RejectedExecutionException e) {
+      rejected.incrementAndGet();
+      return Futures.immediateFailedFuture(e);
+    }
+    return future;
+  }
+
+  /**
+   * Gets the number of tasks that wait for a thread.
+   *
+   * @return the number of waiting tasks
+   */
+  int getQueued() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Gets the maximum number of tasks that can wait for a thread.
+   *
+   * @return the capacity of the queue
+   */
+  int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  /**
+   * Gets the number of threads that are currently running a task.
+   *
+   * @return the number of busy threads
+   */
+  int getActive() {
+    return executor.getActiveCount();
+  }
+
+  /**
+   * Gets the number of background threads.
+   *
+   * @return the number of threads
+   */
+  int getThreads() {
+    return executor.getMaximumPoolSize();
+  }
+
+  /**
+   * Gets the number of tasks that were rejected because the queue was
+   * full.
+   *
+   * @return the number of rejected tasks
+   */
+  long getRejected() {
+    return rejected.get();
+  }
+
+  /**
+   * Gets the number of tasks that have been completed.
+   *
+   * @return the number of completed tasks
+   */
+  long getCompleted() {
+    return executor.getCompletedTaskCount();
+  }
+
+  /**
+   * Stops accepting new tasks and waits a while for the queued ones to
+   * complete.
+   */
+  void close() {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
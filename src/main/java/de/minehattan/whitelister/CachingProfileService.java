@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableList.Builder;
+import com.sk89q.squirrelid.Profile;
+import com.sk89q.squirrelid.resolver.ProfileService;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+/**
+ * Caches the results of another ProfileService.
+ *
+ * <p>Names are cached case-insensitively in a bounded LRU cache. Found
+ * profiles expire after the given time to live; names that could not be
+ * resolved are cached as well, but expire after the shorter negative time to
+ * live. The cache can be saved to and loaded from a compact binary file.</p>
+ */
+public class CachingProfileService implements ProfileService {
+
+  private static final int FILE_VERSION = 1;
+
+  private final ProfileService delegate;
+  private final long ttl;
+  private final long negativeTtl;
+  private final Map<String, CachedProfile> cache;
+
+  /**
+   * Initializes this service.
+   *
+   * @param delegate    the ProfileService whose results are cached
+   * @param maxSize     the maximum number of cached names
+   * @param ttl         the time in milliseconds found profiles are cached
+   * @param negativeTtl the time in milliseconds unknown names are cached
+   */
+  public CachingProfileService(ProfileService delegate, final int maxSize, long ttl, long negativeTtl) {
+    this.delegate = delegate;
+    this.ttl = ttl;
+    this.negativeTtl = negativeTtl;
+    this.cache = new LinkedHashMap<String, CachedProfile>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Entry<String, CachedProfile> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  @Override
+  public int getIdealRequestLimit() {
+    return delegate.getIdealRequestLimit();
+  }
+
+  @Nullable
+  @Override
+  public Profile findByName(String name) throws IOException, InterruptedException {
+    CachedProfile cached = get(name);
+    if (cached != null) {
+      return cached.toProfile();
+    }
+    Profile profile = delegate.findByName(name);
+    if (profile != null) {
+      put(profile.getName(), profile.getUniqueId());
+    } else {
+      put(name, null);
+    }
+    return profile;
+  }
+
+  @Override
+  public ImmutableList<Profile> findAllByName(Iterable<String> names) throws IOException, InterruptedException {
+    final Builder<Profile> builder = ImmutableList.builder();
+    findAllByName(names, new Predicate<Profile>() {
+      @Override
+      public boolean apply(Profile profile) {
+        builder.add(profile);
+        return true;
+      }
+    });
+    return builder.build();
+  }
+
+  @Override
+  public void findAllByName(Iterable<String> names, Predicate<Profile> consumer)
+      throws IOException, InterruptedException {
+    Set<String> missing = new LinkedHashSet<String>();
+    for (String name : names) {
+      CachedProfile cached = get(name);
+      if (cached == null) {
+        missing.add(name.toLowerCase(Locale.ENGLISH));
+      } else if (cached.uniqueId != null) {
+        consumer.apply(cached.toProfile());
+      }
+    }
+    if (missing.isEmpty()) {
+      return;
+    }
+
+    for (Profile profile : delegate.findAllByName(missing)) {
+      put(profile.getName(), profile.getUniqueId());
+      missing.remove(profile.getName().toLowerCase(Locale.ENGLISH));
+      consumer.apply(profile);
+    }
+    for (String name : missing) {
+      put(name, null);
+    }
+  }
+
+  /**
+   * Loads cached profiles from the given file, if it exists. Expired entries
+   * are skipped.
+   *
+   * @param file the file
+   * @throws IOException if the file cannot be read
+   */
+  public void load(File file) throws IOException {
+    if (!file.isFile()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (input.readInt() != FILE_VERSION) {
+        throw new IOException("Unsupported version of the profile cache file.");
+      }
+      int size = input.readInt();
+      for (int i = 0; i < size; i++) {
+        String name = input.readUTF();
+        UUID uniqueId = null;
+        if (input.readBoolean()) {
+          uniqueId = new UUID(input.readLong(), input.readLong());
+        }
+        long expires = input.readLong();
+        if (expires > now) {
+          synchronized (cache) {
+            cache.put(name.toLowerCase(Locale.ENGLISH), new CachedProfile(name, uniqueId, expires));
+          }
+        }
+      }
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Saves all cached profiles that have not expired yet to the given file.
+   * The profiles are written to a temporary file first that then replaces
+   * the given one, so an interrupted write does not corrupt the cache.
+   *
+   * @param file the file
+   * @throws IOException if the file cannot be written
+   */
+  public void save(File file) throws IOException {
+    long now = System.currentTimeMillis();
+    List<CachedProfile> entries;
+    synchronized (cache) {
+      entries = new ArrayList<CachedProfile>(cache.values());
+    }
+
+    File tempFile = new File(file.getPath() + ".tmp");
+    FileOutputStream stream = new FileOutputStream(tempFile);
+    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+    try {
+      output.writeInt(FILE_VERSION);
+      int size = 0;
+      for (CachedProfile entry : entries) {
+        if (entry.expires > now) {
+          size++;
+        }
+      }
+      output.writeInt(size);
+      for (CachedProfile entry : entries) {
+        if (entry.expires <= now) {
+          continue;
+        }
+        output.writeUTF(entry.name);
+        output.writeBoolean(entry.uniqueId != null);
+        if (entry.uniqueId != null) {
+          output.writeLong(entry.uniqueId.getMostSignificantBits());
+          output.writeLong(entry.uniqueId.getLeastSignificantBits());
+        }
+        output.writeLong(entry.expires);
+      }
+      output.flush();
+      stream.getFD().sync();
+    } finally {
+      output.close();
+    }
+    // renaming replaces the old file atomically on most platforms
+    if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+      throw new IOException("Failed to replace '" + file + "' with the new profile cache.");
+    }
+  }
+
+  /**
+   * Gets the cached entry for the given name, if it exists and has not
+   * expired.
+   *
+   * @param name the name
+   * @return the entry or {@code null}
+   */
+  @Nullable
+  private CachedProfile get(String name) {
+    String key = name.toLowerCase(Locale.ENGLISH);
+    synchronized (cache) {
+      CachedProfile cached = cache.get(key);
+      if (cached != null && cached.expires <= System.currentTimeMillis()) {
+        cache.remove(key);
+        return null;
+      }
+      return cached;
+    }
+  }
+
+  /**
+   * Caches the given name.
+   *
+   * @param name     the name
+   * @param uniqueId the corresponding UUID or {@code null} if the name is unknown
+   */
+  private void put(String name, @Nullable UUID uniqueId) {
+    long expires = System.currentTimeMillis() + (uniqueId != null ? ttl : negativeTtl);
+    synchronized (cache) {
+      cache.put(name.toLowerCase(Locale.ENGLISH), new CachedProfile(name, uniqueId, expires));
+    }
+  }
+
+  /**
+   * A cached result of a lookup.
+   */
+  private static final class CachedProfile {
+
+    private final String name;
+    @Nullable
+    private final UUID uniqueId;
+    private final long expires;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param name     the name
+     * @param uniqueId the UUID or {@code null} if the name is unknown
+     * @param expires  the time in milliseconds when this entry expires
+     */
+    private CachedProfile(String name, @Nullable UUID uniqueId, long expires) {
+      this.name = name;
+      this.uniqueId = uniqueId;
+      this.expires = expires;
+    }
+
+    /**
+     * Creates a Profile from this entry.
+     *
+     * @return the Profile or {@code null} if the name is unknown
+     */
+    @Nullable
+    private Profile toProfile() {
+      return uniqueId != null ? new Profile(uniqueId, name) : null;
+    }
+  }
+}
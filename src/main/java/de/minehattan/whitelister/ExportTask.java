@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister;
+
+import au.com.bytecode.opencsv.CSVWriter;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+
+import de.minehattan.whitelister.manager.WhitelistManager;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+/**
+ * Exports all whitelist entries to a CSV file. Each line consists of the name
+ * and the UUID of one player.
+ *
+ * <p>Entries are streamed from the WhitelistManager directly into the file,
+ * so the memory used does not depend on the size of the whitelist.</p>
+ */
+class ExportTask implements Runnable {
+
+  private final WhitelistManager manager;
+  private final File file;
+  private final CommandSender sender;
+
+  /**
+   * Initializes this task.
+   *
+   * @param manager the WhitelistManager to export the entries from
+   * @param file    the CSV file, which must exist
+   * @param sender  the CommandSender who is informed about the result
+   */
+  ExportTask(WhitelistManager manager, File file, CommandSender sender) {
+    this.manager = manager;
+    this.file = file;
+    this.sender = sender;
+  }
+
+  @Override
+  public void run() {
+    long start = System.currentTimeMillis();
+    int count;
+
+    CSVWriter csv = null;
+    try {
+      csv = new CSVWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8)));
+      final CSVWriter writer = csv;
+      count = manager.forEachEntry(new Predicate<Entry<UUID, String>>() {
+        @Override
+        public boolean apply(Entry<UUID, String> entry) {
+          writer.writeNext(new String[]{entry.getValue(), entry.getKey().toString()});
+          return true;
+        }
+      });
+      csv.flush();
+    } catch (IOException e) {
+      Whitelister.sendMessageSync(sender, ChatColor.RED + "Failed to write the export file: " + e);
+      return;
+    } finally {
+      if (csv != null) {
+        try {
+          csv.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+
+    if (count < 0) {
+      Whitelister.sendMessageSync(sender, ChatColor.RED + "Failed to read the whitelist, the export file '"
+                                          + file.getAbsolutePath() + "' is incomplete.");
+      return;
+    }
+    Whitelister.sendMessageSync(sender, ChatColor.GREEN + "" + count + " whitelist entries succesfully exported to '"
+                                        + file.getAbsolutePath() + "' (" + (System.currentTimeMillis() - start)
+                                        + " ms).");
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+import com.google.common.base.Charsets;
+
+import de.minehattan.whitelister.manager.WhitelistManager;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Imports whitelist entries from a CSV file as written by the export command.
+ * Each line consists of the name and the UUID of one player.
+ *
+ * <p>The file is read line by line and the entries are handed to the
+ * WhitelistManager in chunks of the configured size, so that each chunk is
+ * written as one batch. Entries that are already on the whitelist are
+ * skipped.</p>
+ */
+class ImportTask implements Runnable {
+
+  private final WhitelistManager manager;
+  private final LoginThrottle throttle;
+  private final WhitelistPager pager;
+  private final AuditLog audit;
+  private final File file;
+  private final CommandSender sender;
+  private final int chunkSize;
+
+  private int failed;
+
+  /**
+   * Initializes this task.
+   *
+   * @param manager   the WhitelistManager to add the entries to
+   * @param throttle  the LoginThrottle that forgets rejects of the added entries
+   * @param pager     the WhitelistPager whose pages are invalidated by the added entries
+   * @param audit     the AuditLog that records the import
+   * @param file      the CSV file
+   * @param sender    the CommandSender who is informed about the progress
+   * @param chunkSize the number of entries written in one batch
+   */
+  ImportTask(WhitelistManager manager, LoginThrottle throttle, WhitelistPager pager, AuditLog audit, File file,
+             CommandSender sender, int chunkSize) {
+    this.manager = manager;
+    this.throttle = throttle;
+    this.pager = pager;
+    this.audit = audit;
+    this.file = file;
+    this.sender = sender;
+    this.chunkSize = chunkSize;
+  }
+
+  @Override
+  public void run() {
+    long start = System.currentTimeMillis();
+    int read = 0;
+    int added = 0;
+    int invalid = 0;
+
+    Set<UUID> seen = new HashSet<UUID>();
+    Map<UUID, String> chunk = new LinkedHashMap<UUID, String>();
+
+    CSVReader csv = null;
+    try {
+      csv =
+          new CSVReader(new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8)));
+      String[] line;
+      while ((line = csv.readNext()) != null) {
+        read++;
+        if (line.length < 2) {
+          invalid++;
+          continue;
+        }
+        UUID uniqueId;
+        try {
+          uniqueId = UUID.fromString(line[1].trim());
+        } catch (IllegalArgumentException e) {
+          invalid++;
+          continue;
+        }
+        if (!seen.add(uniqueId)) {
+          continue;
+        }
+        chunk.put(uniqueId, line[0].trim());
+
+        if (chunk.size() >= chunkSize) {
+          added += write(chunk);
+          chunk.clear();
+          Whitelister.sendMessageSync(sender, ChatColor.GRAY + "Import: " + read + " rows read, " + added
+                                              + " entries added (" + rate(read, start) + " rows/s).");
+        }
+      }
+      if (!chunk.isEmpty()) {
+        added += write(chunk);
+      }
+    } catch (IOException e) {
+      Whitelister.sendMessageSync(sender, ChatColor.RED + "Failed to read the import file after " + read + " rows: "
+                                          + e.getMessage());
+      return;
+    } finally {
+      if (csv != null) {
+        try {
+          csv.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+
+    audit.record(AuditLog.Type.IMPORTED, null, file.getName(),
+                 sender.getName() + ", " + added + " entries added, " + failed + " failed");
+    if (failed > 0) {
+      Whitelister.sendMessageSync(sender, ChatColor.RED + "Import: " + failed + " entries could not be added due to "
+                                          + "errors, see the console.");
+    }
+    Whitelister.sendMessageSync(sender, ChatColor.GREEN + "Imported '" + file.getName() + "': " + added
+                                        + " entries added, " + (read - added - invalid - failed)
+                                        + " already on the whitelist or duplicated, " + invalid + " invalid rows ("
+                                        + (System.currentTimeMillis() - start) + " ms, " + rate(read, start)
+                                        + " rows/s).");
+  }
+
+  /**
+   * Adds the given chunk to the whitelist. Entries that are neither added
+   * nor on the whitelist afterwards are counted as failed.
+   *
+   * @param chunk the entries
+   * @return the number of added entries
+   */
+  private int write(Map<UUID, String> chunk) {
+    int added = manager.addAll(chunk);
+    throttle.forget(chunk.keySet());
+    pager.invalidate();
+    // a failed transaction adds nothing, just like a chunk that is already on the whitelist
+    if (added < chunk.size()) {
+      int missing = chunk.size() - manager.getNames(chunk.keySet()).size();
+      failed += Math.max(0, missing);
+    }
+    return added;
+  }
+
+  /**
+   * Calculates the number of rows processed per second.
+   *
+   * @param rows  the number of rows processed
+   * @param start the time the processing started in milliseconds
+   * @return the rows per second
+   */
+  private static long rate(int rows, long start) {
+    long elapsed = Math.max(1, System.currentTimeMillis() - start);
+    return rows * 1000L / elapsed;
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister;
+
+import de.minehattan.whitelister.manager.NameUpdateQueue;
+import de.minehattan.whitelister.manager.WhitelistManager;
+import de.minehattan.whitelister.manager.WhitelistManager.CheckResult;
+
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+/**
+ * Decides whether a player who tries to join is allowed by the whitelist.
+ *
+ * <p>If name changes are allowed, a changed name of a whitelisted player is
+ * queued for an update. The gate does not log and does not depend on a
+ * running server, so it can be used outside of Bukkit.</p>
+ */
+public class LoginGate {
+
+  private static final Decision ALLOWED = new Decision(Verdict.ALLOWED, null);
+  private static final Decision NOT_ON_WHITELIST = new Decision(Verdict.NOT_ON_WHITELIST, null);
+
+  private final WhitelistManager manager;
+  private final NameUpdateQueue nameUpdates;
+  private final boolean allowNameChanges;
+
+  /**
+   * Initializes this gate.
+   *
+   * @param manager          the WhitelistManager that is checked
+   * @param nameUpdates      the queue that receives changed names
+   * @param allowNameChanges whether whitelisted players may join with a name other than the stored one
+   */
+  public LoginGate(WhitelistManager manager, NameUpdateQueue nameUpdates, boolean allowNameChanges) {
+    this.manager = manager;
+    this.nameUpdates = nameUpdates;
+    this.allowNameChanges = allowNameChanges;
+  }
+
+  /**
+   * Decides whether the player with the given UUID and name may join.
+   *
+   * @param uniqueId the UUID of the player
+   * @param name     the name of the player
+   * @return the decision
+   */
+  public Decision check(UUID uniqueId, String name) {
+    CheckResult result = manager.contains(uniqueId);
+
+    if (!result.isOnWhitelist()) {
+      return NOT_ON_WHITELIST;
+    }
+
+    if (!allowNameChanges) {
+      if (!result.getWhitelistedName().equals(name)) {
+        return new Decision(Verdict.NAME_CHANGED, result.getWhitelistedName());
+      }
+
+      // if name changes are not allowed, there is no need to update the
+      // stored name
+      return ALLOWED;
+    }
+
+    // Only update the name for players who are on the Whitelist and only if
+    // it actually changed.
+    if (!name.equals(result.getWhitelistedName())) {
+      nameUpdates.enqueue(uniqueId, name);
+    }
+    return ALLOWED;
+  }
+
+  /**
+   * The possible outcomes of a check.
+   */
+  public enum Verdict {
+
+    /**
+     * The player may join.
+     */
+    ALLOWED,
+
+    /**
+     * The player is not on the whitelist.
+     */
+    NOT_ON_WHITELIST,
+
+    /**
+     * The player is on the whitelist, but with an other name.
+     */
+    NAME_CHANGED
+  }
+
+  /**
+   * The result of a check.
+   */
+  public static final class Decision {
+
+    private final Verdict verdict;
+    @Nullable
+    private final String whitelistedName;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param verdict         the verdict
+     * @param whitelistedName the name on the whitelist, if the verdict is {@link Verdict#NAME_CHANGED}
+     */
+    private Decision(Verdict verdict, @Nullable String whitelistedName) {
+      this.verdict = verdict;
+      this.whitelistedName = whitelistedName;
+    }
+
+    /**
+     * Gets the verdict.
+     *
+     * @return the verdict
+     */
+    public Verdict getVerdict() {
+      return verdict;
+    }
+
+    /**
+     * Gets the name that is associated with the player's UUID on the
+     * whitelist. Only available if the verdict is
+     * {@link Verdict#NAME_CHANGED}.
+     *
+     * @return the whitelisted name or {@code null}
+     */
+    @Nullable
+    public String getWhitelistedName() {
+      return whitelistedName;
+    }
+  }
+}
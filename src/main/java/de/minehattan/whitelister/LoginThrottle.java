@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * Protects the whitelist from login floods.
+ *
+ * <p>Every login attempt has to pass two token buckets, one for the address
+ * and one for the UUID of the player. Additionally, UUIDs that have been
+ * rejected because they are not on the whitelist are remembered for a short
+ * time, so repeated attempts are rejected without checking the whitelist
+ * again. Entries added on this server are forgotten immediately, entries
+ * added by other servers once the time has passed.</p>
+ *
+ * <p>All methods are lock-free and can be called from any number of login
+ * threads.</p>
+ */
+class LoginThrottle {
+
+  private static final long CLEANUP_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+  /**
+   * The arrival time of a bucket that has been removed. Attempts that still
+   * hold such a bucket start over with a new one.
+   */
+  private static final long REMOVED = Long.MIN_VALUE;
+
+  private final long rejectTtl;
+  private final RateLimit addressLimit;
+  private final RateLimit uniqueIdLimit;
+  private final ConcurrentMap<UUID, Long> rejected = new ConcurrentHashMap<UUID, Long>();
+  private final ConcurrentMap<InetAddress, AtomicLong> addressBuckets =
+      new ConcurrentHashMap<InetAddress, AtomicLong>();
+  private final ConcurrentMap<UUID, AtomicLong> uniqueIdBuckets = new ConcurrentHashMap<UUID, AtomicLong>();
+  private final AtomicLong lastCleanup = new AtomicLong(System.nanoTime());
+
+  private final AtomicLong throttledByAddress = new AtomicLong();
+  private final AtomicLong throttledByUniqueId = new AtomicLong();
+  private final AtomicLong cachedRejects = new AtomicLong();
+
+  /**
+   * Initializes this throttle.
+   *
+   * @param rejectTtl     the time in milliseconds rejected UUIDs are remembered or {@code 0} to not remember them
+   * @param addressRate   the number of attempts per minute allowed from one address or {@code 0} for no limit
+   * @param addressBurst  the number of attempts one address may make at once
+   * @param uniqueIdRate  the number of attempts per minute allowed for one UUID or {@code 0} for no limit
+   * @param uniqueIdBurst the number of attempts that may be made at once for one UUID
+   */
+  LoginThrottle(long rejectTtl, int addressRate, int addressBurst, int uniqueIdRate, int uniqueIdBurst) {
+    this.rejectTtl = TimeUnit.MILLISECONDS.toNanos(rejectTtl);
+    this.addressLimit = new RateLimit(addressRate, addressBurst);
+    this.uniqueIdLimit = new RateLimit(uniqueIdRate, uniqueIdBurst);
+  }
+
+  /**
+   * Takes a token from the buckets of the given address and UUID.
+   *
+   * @param address  the address of the player or {@code null} if it is unknown
+   * @param uniqueId the UUID of the player
+   * @return {@code true} if the attempt may proceed, {@code false} if it is throttled
+   */
+  boolean tryAcquire(@Nullable InetAddress address, UUID uniqueId) {
+    long now = System.nanoTime();
+    cleanUpIfDue(now);
+
+    if (address != null && !addressLimit.tryAcquire(addressBuckets, address, now)) {
+      throttledByAddress.incrementAndGet();
+      return false;
+    }
+    if (!uniqueIdLimit.tryAcquire(uniqueIdBuckets, uniqueId, now)) {
+      throttledByUniqueId.incrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether the given UUID has been rejected recently because it is
+   * not on the whitelist.
+   *
+   * @param uniqueId the UUID
+   * @return {@code true} if the UUID can be rejected right away
+   */
+  boolean isRecentlyRejected(UUID uniqueId) {
+    Long expires = rejected.get(uniqueId);
+    if (expires == null) {
+      return false;
+    }
+    if (expires - System.nanoTime() <= 0) {
+      rejected.remove(uniqueId, expires);
+      return false;
+    }
+    cachedRejects.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Remembers that the given UUID has been rejected because it is not on the
+   * whitelist.
+   *
+   * @param uniqueId the UUID
+   */
+  void rejected(UUID uniqueId) {
+    if (rejectTtl > 0) {
+      rejected.put(uniqueId, System.nanoTime() + rejectTtl);
+    }
+  }
+
+  /**
+   * Forgets that the given UUIDs have been rejected. Must be called when
+   * they are added to the whitelist.
+   *
+   * @param uniqueIds the UUIDs
+   */
+  void forget(Iterable<UUID> uniqueIds) {
+    for (UUID uniqueId : uniqueIds) {
+      rejected.remove(uniqueId);
+    }
+  }
+
+  /**
+   * Gets the number of attempts that have been throttled because of their
+   * address.
+   *
+   * @return the number of attempts
+   */
+  long getThrottledByAddress() {
+    return throttledByAddress.get();
+  }
+
+  /**
+   * Gets the number of attempts that have been throttled because of their
+   * UUID.
+   *
+   * @return the number of attempts
+   */
+  long getThrottledByUniqueId() {
+    return throttledByUniqueId.get();
+  }
+
+  /**
+   * Gets the number of attempts that have been rejected because their UUID
+   * has been rejected recently.
+   *
+   * @return the number of attempts
+   */
+  long getCachedRejects() {
+    return cachedRejects.get();
+  }
+
+  /**
+   * Gets the number of addresses and UUIDs that are currently tracked.
+   *
+   * @return the number of tracked keys
+   */
+  int getTracked() {
+    return addressBuckets.size() + uniqueIdBuckets.size() + rejected.size();
+  }
+
+  /**
+   * Removes full buckets and expired rejects, at most once per cleanup
+   * interval. Only one of the concurrent callers does the work.
+   *
+   * @param now the current time in nanoseconds
+   */
+  private void cleanUpIfDue(long now) {
+    long last = lastCleanup.get();
+    if (now - last < CLEANUP_INTERVAL || !lastCleanup.compareAndSet(last, now)) {
+      return;
+    }
+    removeFull(addressBuckets, now);
+    removeFull(uniqueIdBuckets, now);
+    Iterator<Long> expires = rejected.values().iterator();
+    while (expires.hasNext()) {
+      if (expires.next() - now <= 0) {
+        expires.remove();
+      }
+    }
+  }
+
+  /**
+   * Removes all buckets that are full again. A bucket is marked as removed
+   * before it is removed from the map, so an attempt that takes from it
+   * concurrently either wins the compare-and-set and keeps the bucket, or
+   * sees the mark and starts over with a new bucket.
+   *
+   * @param buckets the buckets
+   * @param now     the current time in nanoseconds
+   */
+  private static void removeFull(ConcurrentMap<?, AtomicLong> buckets, long now) {
+    for (Entry<?, AtomicLong> entry : buckets.entrySet()) {
+      long arrival = entry.getValue().get();
+      if (arrival != REMOVED && arrival - now <= 0 && entry.getValue().compareAndSet(arrival, REMOVED)) {
+        buckets.remove(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * A token bucket limit, implemented as generic cell rate algorithm: each
+   * bucket is a single timestamp, the theoretical arrival time of the next
+   * attempt, which is advanced by compare-and-set.
+   */
+  private static final class RateLimit {
+
+    private final long interval;
+    private final long tolerance;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param rate  the number of attempts per minute or {@code 0} for no limit
+     * @param burst the number of attempts that may be made at once
+     */
+    private RateLimit(int rate, int burst) {
+      this.interval = rate > 0 ? TimeUnit.MINUTES.toNanos(1) / rate : 0;
+      this.tolerance = interval * (Math.max(1, burst) - 1);
+    }
+
+    /**
+     * Takes a token from the bucket of the given key.
+     *
+     * @param buckets the buckets
+     * @param key     the key
+     * @param now     the current time in nanoseconds
+     * @param <K>     the type of the key
+     * @return {@code true} if a token was available
+     */
+    private <K> boolean tryAcquire(ConcurrentMap<K, AtomicLong> buckets, K key, long now) {
+      if (interval == 0) {
+        return true;
+      }
+      while (true) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+          bucket = new AtomicLong(now);
+          AtomicLong existing = buckets.putIfAbsent(key, bucket);
+          if (existing != null) {
+            bucket = existing;
+          }
+        }
+        if (take(bucket, now)) {
+          return true;
+        }
+        if (bucket.get() != REMOVED) {
+          return false;
+        }
+        // removed while we were taking from it
+        buckets.remove(key, bucket);
+      }
+    }
+
+    /**
+     * Takes a token from the given bucket.
+     *
+     * @param bucket the bucket
+     * @param now    the current time in nanoseconds
+     * @return {@code true} if a token was available, {@code false} if the
+     *         bucket is empty or has been removed
+     */
+    private boolean take(AtomicLong bucket, long now) {
+      while (true) {
+        long arrival = bucket.get();
+        if (arrival == REMOVED) {
+          return false;
+        }
+        long start = arrival - now < 0 ? now : arrival;
+        if (start - now > tolerance) {
+          return false;
+        }
+        if (bucket.compareAndSet(arrival, start + interval)) {
+          return true;
+        }
+      }
+    }
+  }
+}
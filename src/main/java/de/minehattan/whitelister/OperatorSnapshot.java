@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister;
+
+import com.google.common.collect.ImmutableSet;
+import com.sk89q.commandbook.CommandBook;
+
+import de.minehattan.whitelister.metrics.LatencyHistogram;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.event.server.ServerCommandEvent;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+/**
+ * A snapshot of the UUIDs of all server operators that can be queried from
+ * any thread.
+ *
+ * <p>The snapshot is taken on the main server thread. It is refreshed
+ * periodically and one tick after an {@code op} or {@code deop} command has
+ * been issued.</p>
+ */
+class OperatorSnapshot implements Listener, Runnable {
+
+  private final LatencyHistogram refreshes;
+  private volatile Set<UUID> operators = ImmutableSet.of();
+  @Nullable
+  private BukkitTask task;
+
+  /**
+   * Initializes this snapshot.
+   *
+   * @param refreshes the histogram that records how long refreshing takes
+   */
+  OperatorSnapshot(LatencyHistogram refreshes) {
+    this.refreshes = refreshes;
+  }
+
+  /**
+   * Returns whether the given UUID belonged to an operator when the snapshot
+   * was last refreshed.
+   *
+   * @param uniqueId the UUID
+   * @return {@code true} if the UUID belongs to an operator
+   */
+  boolean isOp(UUID uniqueId) {
+    return operators.contains(uniqueId);
+  }
+
+  /**
+   * Refreshes the snapshot. Must be called from the main server thread.
+   */
+  @Override
+  public void run() {
+    long start = System.nanoTime();
+    ImmutableSet.Builder<UUID> builder = ImmutableSet.builder();
+    for (OfflinePlayer operator : CommandBook.server().getOperators()) {
+      builder.add(operator.getUniqueId());
+    }
+    operators = builder.build();
+    refreshes.recordSince(start);
+  }
+
+  /**
+   * Takes a snapshot and starts refreshing it periodically, replacing any
+   * previously started refresh. Must be called from the main server thread.
+   *
+   * @param interval the refresh interval in ticks
+   */
+  void start(long interval) {
+    stop();
+    run();
+    task = CommandBook.server().getScheduler().runTaskTimer(CommandBook.inst(), this, interval, interval);
+  }
+
+  /**
+   * Stops refreshing the snapshot periodically.
+   */
+  void stop() {
+    if (task != null) {
+      task.cancel();
+      task = null;
+    }
+  }
+
+  /**
+   * Called when a player issues a command.
+   *
+   * @param event the event
+   */
+  @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+  public void onPlayerCommandPreprocess(PlayerCommandPreprocessEvent event) {
+    refreshIfOpCommand(event.getMessage());
+  }
+
+  /**
+   * Called when the console issues a command.
+   *
+   * @param event the event
+   */
+  @EventHandler(priority = EventPriority.MONITOR)
+  public void onServerCommand(ServerCommandEvent event) {
+    refreshIfOpCommand(event.getCommand());
+  }
+
+  /**
+   * Schedules a refresh for the next tick, when the command has been
+   * executed, if the given command line changes the op status of a player.
+   *
+   * @param commandLine the command line, with or without leading slash
+   */
+  private void refreshIfOpCommand(String commandLine) {
+    String command = commandLine.trim().toLowerCase(Locale.ENGLISH);
+    if (command.startsWith("/")) {
+      command = command.substring(1);
+    }
+    if (command.startsWith("op ") || command.startsWith("deop ")) {
+      CommandBook.server().getScheduler().runTask(CommandBook.inst(), this);
+    }
+  }
+}
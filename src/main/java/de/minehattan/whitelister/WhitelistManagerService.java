@@ -28,6 +28,7 @@ import com.sk89q.squirrelid.resolver.ProfileService;
 import de.minehattan.whitelister.manager.WhitelistManager;
 
 import java.io.IOException;
+import java.util.Map.Entry;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
@@ -38,19 +39,22 @@ import javax.annotation.Nullable;
 public class WhitelistManagerService implements ProfileService {
 
   private final WhitelistManager manager;
+  private final int requestLimit;
 
   /**
    * Initialzes this WhitelistManagerService.
    *
-   * @param manager the WhitelistManager
+   * @param manager      the WhitelistManager
+   * @param requestLimit the number of names the WhitelistManager resolves in one query
    */
-  public WhitelistManagerService(WhitelistManager manager) {
+  public WhitelistManagerService(WhitelistManager manager, int requestLimit) {
     this.manager = manager;
+    this.requestLimit = requestLimit;
   }
 
   @Override
   public int getIdealRequestLimit() {
-    return Integer.MAX_VALUE;
+    return requestLimit;
   }
 
   @Nullable
@@ -67,11 +71,8 @@ public class WhitelistManagerService implements ProfileService {
   @Override
   public ImmutableList<Profile> findAllByName(Iterable<String> names) throws IOException, InterruptedException {
     Builder<Profile> builder = ImmutableList.builder();
-    for (String name : names) {
-      Profile profile = findByName(name);
-      if (profile != null) {
-        builder.add(profile);
-      }
+    for (Entry<String, UUID> entry : manager.getUniqueIDs(ImmutableList.copyOf(names)).entrySet()) {
+      builder.add(new Profile(entry.getValue(), entry.getKey()));
     }
     return builder.build();
   }
@@ -79,11 +80,8 @@ public class WhitelistManagerService implements ProfileService {
   @Override
   public void findAllByName(Iterable<String> names, Predicate<Profile> consumer)
       throws IOException, InterruptedException {
-    for (String name : names) {
-      Profile profile = findByName(name);
-      if (profile != null) {
-        consumer.apply(profile);
-      }
+    for (Entry<String, UUID> entry : manager.getUniqueIDs(ImmutableList.copyOf(names)).entrySet()) {
+      consumer.apply(new Profile(entry.getValue(), entry.getKey()));
     }
   }
 
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister;
+
+import de.minehattan.whitelister.manager.WhitelistManager;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Displays the whitelist page by page using keyset pagination.
+ *
+ * <p>For every CommandSender the last UUID of each page that has been fetched
+ * is remembered, so the next page, or any page that has been displayed
+ * before, is fetched with a single query that only returns the displayed
+ * entries. Jumping ahead to a page that has never been reached fetches the
+ * pages in between together with the requested one, using one query per
+ * {@value #MAX_PAGES_PER_QUERY} pages.</p>
+ *
+ * <p>The remembered UUIDs of a CommandSender expire if they have not been
+ * used for {@value #EXPIRY_MINUTES} minutes, and are dropped for everyone
+ * when the whitelist is changed, since the changed entries shift the
+ * following pages.</p>
+ */
+class WhitelistPager {
+
+  /**
+   * The number of entries per page.
+   */
+  static final int PAGE_SIZE = 9;
+
+  /**
+   * The maximum number of pages fetched with a single query when jumping
+   * ahead.
+   */
+  static final int MAX_PAGES_PER_QUERY = 1000;
+
+  /**
+   * The time in minutes the remembered UUIDs of a CommandSender are kept
+   * without being used.
+   */
+  static final int EXPIRY_MINUTES = 10;
+
+  private static final String HEADER = "Whitelist (Name - UUID)";
+  private static final long EXPIRY = TimeUnit.MINUTES.toMillis(EXPIRY_MINUTES);
+
+  private final ConcurrentMap<String, PageEnds> pageEnds = new ConcurrentHashMap<String, PageEnds>();
+
+  /**
+   * Displays the given page of the whitelist to the given CommandSender. This
+   * method blocks while querying the WhitelistManager and should not be called
+   * from the main server thread.
+   *
+   * @param manager the WhitelistManager
+   * @param sender  the CommandSender
+   * @param page    the number of the page, starting with 1
+   */
+  void display(WhitelistManager manager, CommandSender sender, int page) {
+    int total = manager.count();
+    if (total == 0) {
+      Whitelister.sendMessageSync(sender, ChatColor.RED + "No results match!");
+      return;
+    }
+    int pages = (total + PAGE_SIZE - 1) / PAGE_SIZE;
+    if (page < 1 || page > pages) {
+      Whitelister.sendMessageSync(sender, ChatColor.RED + "Unknown page selected! " + pages + " total pages.");
+      return;
+    }
+
+    Map<UUID, String> entries = new LinkedHashMap<UUID, String>();
+    PageEnds ends = getPageEnds(sender);
+    synchronized (ends) {
+      int current = Math.min(ends.size(), page - 1);
+      UUID after = current > 0 ? ends.get(current - 1) : null;
+      while (current < page) {
+        int limit = Math.min(page - current, MAX_PAGES_PER_QUERY) * PAGE_SIZE;
+        Map<UUID, String> fetched = manager.getPage(after, limit);
+        int position = 0;
+        for (Entry<UUID, String> entry : fetched.entrySet()) {
+          if (position % PAGE_SIZE == 0) {
+            entries.clear();
+            current++;
+          }
+          entries.put(entry.getKey(), entry.getValue());
+          after = entry.getKey();
+          ends.record(current, after);
+          position++;
+        }
+        if (fetched.size() < limit) {
+          // the whitelist has shrunk since it has been counted
+          if (current < page) {
+            entries.clear();
+          }
+          break;
+        }
+      }
+    }
+
+    StringBuilder builder = new StringBuilder();
+    builder.append(ChatColor.YELLOW).append(HEADER).append(" (page ").append(page).append('/').append(pages)
+        .append(')');
+    for (Entry<UUID, String> entry : entries.entrySet()) {
+      builder.append('\n').append(ChatColor.GRAY).append(entry.getValue()).append(ChatColor.WHITE).append(" - ")
+          .append(ChatColor.GRAY).append(entry.getKey());
+    }
+    Whitelister.sendMessageSync(sender, builder.toString());
+  }
+
+  /**
+   * Forgets the remembered UUIDs of all CommandSenders. Must be called
+   * whenever entries are added to or removed from the whitelist.
+   */
+  void invalidate() {
+    pageEnds.clear();
+  }
+
+  /**
+   * Gets the last UUIDs on the pages fetched for the given CommandSender,
+   * dropping the ones of other CommandSenders that have expired.
+   *
+   * @param sender the CommandSender
+   * @return the PageEnds, which must only be accessed while holding their lock
+   */
+  private PageEnds getPageEnds(CommandSender sender) {
+    long now = System.currentTimeMillis();
+    Iterator<PageEnds> it = pageEnds.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().lastAccess + EXPIRY < now) {
+        it.remove();
+      }
+    }
+
+    PageEnds ends = pageEnds.get(sender.getName());
+    if (ends == null) {
+      ends = new PageEnds();
+      PageEnds existing = pageEnds.putIfAbsent(sender.getName(), ends);
+      if (existing != null) {
+        ends = existing;
+      }
+    }
+    ends.lastAccess = now;
+    return ends;
+  }
+
+  /**
+   * The last UUIDs of the pages fetched for one CommandSender.
+   */
+  private static final class PageEnds {
+
+    private final List<UUID> ends = new ArrayList<UUID>();
+    private volatile long lastAccess;
+
+    /**
+     * Gets the number of pages whose last UUID is known.
+     *
+     * @return the number of pages
+     */
+    private int size() {
+      return ends.size();
+    }
+
+    /**
+     * Gets the last UUID of the given page.
+     *
+     * @param index the index of the page, starting with 0
+     * @return the last UUID
+     */
+    private UUID get(int index) {
+      return ends.get(index);
+    }
+
+    /**
+     * Remembers the last UUID of the given page.
+     *
+     * @param page the number of the page, starting with 1
+     * @param last the last UUID of the page
+     */
+    private void record(int page, UUID last) {
+      if (page - 1 < ends.size()) {
+        ends.set(page - 1, last);
+      } else {
+        ends.add(last);
+      }
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister;
+
+import com.sk89q.commandbook.CommandBook;
+import com.sk89q.squirrelid.resolver.ProfileService;
+
+import de.minehattan.whitelister.manager.ChangeLogPoller;
+import de.minehattan.whitelister.manager.LocalFileWhitelistManager;
+import de.minehattan.whitelister.manager.NameUpdateQueue;
+import de.minehattan.whitelister.manager.WhitelistManager;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * The services that depend on the configured whitelist backend.
+ *
+ * <p>They are set up and warmed up together and replaced as a whole, so a
+ * login or command always works with services of the same configuration.</p>
+ *
+ * <p>Logins and commands acquire the stack while they use it. A replaced
+ * stack is retired: it is closed once all of them have released it or a
+ * grace period has passed.</p>
+ */
+class WhitelistStack {
+
+  private final WhitelistManager manager;
+  private final BoundedCommandExecutor commandExecutor;
+  private final NameUpdateQueue nameUpdates;
+  private final LoginGate loginGate;
+  private final ProfileService resolver;
+  @Nullable
+  private final ChangeLogPoller changeLogPoller;
+  @Nullable
+  private final LocalFileWhitelistManager fileManager;
+
+  // starts at one for the reference held while this stack is the current one
+  private final AtomicInteger users = new AtomicInteger(1);
+  private final CountDownLatch idle = new CountDownLatch(1);
+
+  /**
+   * Initializes this stack.
+   *
+   * @param manager         the WhitelistManager
+   * @param commandExecutor the BoundedCommandExecutor that runs the tasks of commands in the background
+   * @param nameUpdates     the queue for name updates written to the manager
+   * @param loginGate       the LoginGate that checks the manager
+   * @param resolver        the ProfileService that resolves names
+   * @param changeLogPoller the ChangeLogPoller that applies changes of other servers or {@code null}
+   * @param fileManager     the LocalFileWhitelistManager at the bottom of the manager or {@code null} if another
+   *                        backend is used
+   */
+  WhitelistStack(WhitelistManager manager, BoundedCommandExecutor commandExecutor, NameUpdateQueue nameUpdates,
+                 LoginGate loginGate, ProfileService resolver, @Nullable ChangeLogPoller changeLogPoller,
+                 @Nullable LocalFileWhitelistManager fileManager) {
+    this.manager = manager;
+    this.commandExecutor = commandExecutor;
+    this.nameUpdates = nameUpdates;
+    this.loginGate = loginGate;
+    this.resolver = resolver;
+    this.changeLogPoller = changeLogPoller;
+    this.fileManager = fileManager;
+  }
+
+  /**
+   * Gets the WhitelistManager.
+   *
+   * @return the WhitelistManager
+   */
+  WhitelistManager getManager() {
+    return manager;
+  }
+
+  /**
+   * Gets the BoundedCommandExecutor that runs the tasks of commands in the
+   * background.
+   *
+   * @return the BoundedCommandExecutor
+   */
+  BoundedCommandExecutor getCommandExecutor() {
+    return commandExecutor;
+  }
+
+  /**
+   * Gets the queue for name updates.
+   *
+   * @return the NameUpdateQueue
+   */
+  NameUpdateQueue getNameUpdates() {
+    return nameUpdates;
+  }
+
+  /**
+   * Gets the LoginGate.
+   *
+   * @return the LoginGate
+   */
+  LoginGate getLoginGate() {
+    return loginGate;
+  }
+
+  /**
+   * Gets the ProfileService that resolves names.
+   *
+   * @return the ProfileService
+   */
+  ProfileService getResolver() {
+    return resolver;
+  }
+
+  /**
+   * Gets the LocalFileWhitelistManager at the bottom of the manager. Only
+   * one instance may use the files at a time, so it is handed over to the
+   * next stack instead of opening the files again.
+   *
+   * @return the LocalFileWhitelistManager or {@code null} if another backend is used
+   */
+  @Nullable
+  LocalFileWhitelistManager getFileManager() {
+    return fileManager;
+  }
+
+  /**
+   * Acquires this stack for a login or command. Each successful call must be
+   * followed by a call of {@link #release()}.
+   *
+   * @return {@code true} if the stack has been acquired, {@code false} if it has been retired already
+   */
+  boolean acquire() {
+    while (true) {
+      int current = users.get();
+      if (current == 0) {
+        return false;
+      }
+      if (users.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Releases this stack after a login or command.
+   */
+  void release() {
+    if (users.decrementAndGet() == 0) {
+      idle.countDown();
+    }
+  }
+
+  /**
+   * Retires this stack once it has been replaced: waits until all logins and
+   * commands have released it, but at most the given time, and closes it
+   * afterwards.
+   *
+   * @param gracePeriod the maximum time to wait in milliseconds
+   * @param keepFile    {@code true} if the LocalFileWhitelistManager has been handed over to the next stack and
+   *                    must stay open
+   */
+  void retire(long gracePeriod, boolean keepFile) {
+    release();
+    try {
+      if (!idle.await(gracePeriod, TimeUnit.MILLISECONDS)) {
+        CommandBook.logger().warning("Closing the previous whitelist while " + users.get()
+                                     + " logins or commands still use it.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    close(keepFile);
+  }
+
+  /**
+   * Stops the ChangeLogPoller, waits for the pending background operations,
+   * writes all pending name updates and closes the WhitelistManager.
+   *
+   * @param keepFile {@code true} if the LocalFileWhitelistManager must stay open
+   */
+  private void close(boolean keepFile) {
+    commandExecutor.close();
+    if (changeLogPoller != null) {
+      changeLogPoller.close();
+    }
+    nameUpdates.close();
+    if (!keepFile) {
+      manager.close();
+    }
+  }
+}
@@ -19,11 +19,13 @@
 
 package de.minehattan.whitelister;
 
-import au.com.bytecode.opencsv.CSVWriter;
-
-import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sk89q.commandbook.CommandBook;
-import com.sk89q.commandbook.commands.PaginatedResult;
 import com.sk89q.commandbook.util.entity.player.iterators.PlayerIteratorAction;
 import com.sk89q.minecraft.util.commands.Command;
 import com.sk89q.minecraft.util.commands.CommandContext;
@@ -39,9 +41,28 @@ import com.zachsthings.libcomponents.bukkit.BukkitComponent;
 import com.zachsthings.libcomponents.config.ConfigurationBase;
 import com.zachsthings.libcomponents.config.Setting;
 
+import de.minehattan.whitelister.LoginGate.Decision;
+import de.minehattan.whitelister.manager.CachingWhitelistManager;
+import de.minehattan.whitelister.manager.ChangeLogPoller;
+import de.minehattan.whitelister.manager.ConnectionPool;
+import de.minehattan.whitelister.manager.FilteringWhitelistManager;
+import de.minehattan.whitelister.manager.HashWhitelistIndex;
+import de.minehattan.whitelister.manager.IncompatibleSchemaException;
+import de.minehattan.whitelister.manager.LocalFileWhitelistManager;
 import de.minehattan.whitelister.manager.MySQLWhitelistManager;
+import de.minehattan.whitelister.manager.NameUpdateQueue;
+import de.minehattan.whitelister.manager.PackedWhitelistIndex;
+import de.minehattan.whitelister.manager.WhitelistChangeListener;
+import de.minehattan.whitelister.manager.WhitelistErrorListener;
+import de.minehattan.whitelister.manager.WhitelistIndex;
 import de.minehattan.whitelister.manager.WhitelistManager;
+import de.minehattan.whitelister.manager.WhitelistManager.AddResult;
 import de.minehattan.whitelister.manager.WhitelistManager.CheckResult;
+import de.minehattan.whitelister.manager.WhitelistManager.RemoveResult;
+import de.minehattan.whitelister.metrics.InstrumentedProfileService;
+import de.minehattan.whitelister.metrics.InstrumentedWhitelistManager;
+import de.minehattan.whitelister.metrics.LatencyHistogram;
+import de.minehattan.whitelister.metrics.Metrics;
 
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
@@ -51,21 +72,31 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.AsyncPlayerPreLoginEvent.Result;
+import org.bukkit.scheduler.BukkitTask;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
+import javax.annotation.Nullable;
+
 /**
  * The central entry-point of Whitelister.
  */
@@ -73,10 +104,37 @@ import java.util.logging.Level;
                                                            + "whitelist")
 public class Whitelister extends BukkitComponent implements Listener {
 
+  private static final long WARM_UP_RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+  private static final long STACK_GRACE_PERIOD = TimeUnit.SECONDS.toMillis(30);
+  private static final Executor SAME_THREAD = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
   private volatile boolean maintenanceMode;
   private LocalConfiguration config;
-  private WhitelistManager whitelistManager;
-  private ProfileService resolver;
+  @Nullable
+  private volatile WhitelistStack stack;
+  private final CountDownLatch firstStack = new CountDownLatch(1);
+  private ScheduledExecutorService warmUpExecutor;
+  private boolean disabled;
+  private volatile LoginThrottle throttle;
+  private volatile AuditLog audit;
+  private CachingProfileService profileCache;
+  private final WhitelistPager pager = new WhitelistPager();
+  private final Metrics metrics = new Metrics();
+  private final Executor mainThread = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      CommandBook.server().getScheduler().runTask(CommandBook.inst(), command);
+    }
+  };
+  private final LatencyHistogram loginChecks = metrics.histogram("login.check");
+  private final OperatorSnapshot operators = new OperatorSnapshot(metrics.histogram("operators.refresh"));
+  @Nullable
+  private BukkitTask metricsDump;
 
   /**
    * The configuration.
@@ -93,8 +151,18 @@ public class Whitelister extends BukkitComponent implements Listener {
     private String
         maintenanceMessage =
         "The server is currently in maintenance mode. Please try again in a few minutes.";
+    @Setting("messages.starting")
+    private String startingMessage = "The server is still starting. Please try again in a moment.";
+    @Setting("messages.throttled")
+    private String throttledMessage = "You are trying to join too often. Please wait a moment.";
     @Setting("messages.maintenanceEnabled")
     private String maintenanceEnabledMessage = "Maintenance-Mode has been enabled - only OPs can join now.";
+    @Setting("backend")
+    private String backend = "mysql";
+    @Setting("file.compactThreshold")
+    private int fileCompactThreshold = 1000;
+    @Setting("file.compactIntervalMinutes")
+    private int fileCompactInterval = 60;
     @Setting("mysql.dsn")
     private String mysqlDsn = "jdbc:mysql://localhost/minecraft";
     @Setting("mysql.tableName")
@@ -103,95 +171,562 @@ public class Whitelister extends BukkitComponent implements Listener {
     private String mysqlUser = "minecraft";
     @Setting("mysql.password")
     private String mysqlPassword = "password";
+    @Setting("mysql.pool.minSize")
+    private int poolMinSize = 2;
+    @Setting("mysql.pool.maxSize")
+    private int poolMaxSize = 8;
+    @Setting("mysql.pool.idleTimeout")
+    private int poolIdleTimeout = 300;
+    @Setting("mysql.pool.validationInterval")
+    private int poolValidationInterval = 30;
+    @Setting("mysql.pool.borrowTimeoutMillis")
+    private int poolBorrowTimeout = 5000;
+    @Setting("cache.enabled")
+    private boolean cacheEnabled = true;
+    @Setting("cache.compactIndex")
+    private boolean cacheCompactIndex = false;
+    @Setting("throttle.rejectCacheSeconds")
+    private int throttleRejectTtl = 10;
+    // off by default: players behind a shared address (NAT, proxies) would lock each other out
+    @Setting("throttle.perAddress.attemptsPerMinute")
+    private int throttleAddressRate = 0;
+    @Setting("throttle.perAddress.burst")
+    private int throttleAddressBurst = 5;
+    @Setting("throttle.perUniqueId.attemptsPerMinute")
+    private int throttleUniqueIdRate = 6;
+    @Setting("throttle.perUniqueId.burst")
+    private int throttleUniqueIdBurst = 3;
+    @Setting("filter.enabled")
+    private boolean filterEnabled;
+    @Setting("filter.falsePositiveRate")
+    private double filterFalsePositiveRate = 0.01;
+    @Setting("filter.maxMemoryKb")
+    private int filterMaxMemory = 4096;
+    @Setting("filter.rebuildIntervalMinutes")
+    private int filterRebuildInterval = 30;
+    @Setting("sync.enabled")
+    private boolean syncEnabled;
+    @Setting("sync.pollIntervalMillis")
+    private int syncPollInterval = 2000;
+    @Setting("sync.retentionHours")
+    private int syncRetention = 24;
+    @Setting("async.threads")
+    private int asyncThreads = 4;
+    @Setting("async.queueCapacity")
+    private int asyncQueueCapacity = 64;
+    @Setting("startup.loginWaitSeconds")
+    private int startupLoginWait = 10;
+    @Setting("maintenance.opRefreshInterval")
+    private int opRefreshInterval = 60;
+    @Setting("nameUpdates.queueCapacity")
+    private int nameUpdateCapacity = 1000;
+    @Setting("nameUpdates.flushIntervalMillis")
+    private int nameUpdateFlushInterval = 2000;
+    @Setting("profileCache.maxSize")
+    private int profileCacheSize = 10000;
+    @Setting("profileCache.ttlMinutes")
+    private int profileCacheTtl = 360;
+    @Setting("profileCache.negativeTtlMinutes")
+    private int profileCacheNegativeTtl = 5;
+    @Setting("import.batchSize")
+    private int importBatchSize = 500;
+    @Setting("metrics.dumpIntervalSeconds")
+    private int metricsDumpInterval = 300;
+    @Setting("audit.bufferSize")
+    private int auditBufferSize = 8192;
+    @Setting("audit.flushIntervalMillis")
+    private int auditFlushInterval = 1000;
+    @Setting("audit.maxFileSizeKb")
+    private int auditMaxFileSize = 10240;
+    @Setting("audit.maxFiles")
+    private int auditMaxFiles = 5;
+    @Setting("audit.consoleSampleRate")
+    private double auditConsoleSampleRate = 0.1;
   }
 
   @Override
   public void enable() {
     config = configure(new LocalConfiguration());
+    throttle = setupThrottle();
+    audit = setupAuditLog();
     registerCommands(TopLevelCommand.class);
     CommandBook.registerEvents(this);
+    CommandBook.registerEvents(operators);
+    operators.start(opRefreshTicks());
+    startMetricsDump();
 
-    whitelistManager = setupWhitelistManager();
+    ProfileService mojang = new InstrumentedProfileService(HttpRepositoryService.forMinecraft(), metrics, "mojang.");
+    profileCache =
+        new CachingProfileService(mojang, config.profileCacheSize, TimeUnit.MINUTES.toMillis(config.profileCacheTtl),
+                                  TimeUnit.MINUTES.toMillis(config.profileCacheNegativeTtl));
+
+    warmUpExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Whitelister-WarmUp-%d").build());
+    warmUpExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          profileCache.load(getProfileCacheFile());
+        } catch (IOException e) {
+          CommandBook.logger().log(Level.WARNING, "Failed to load the profile cache.", e);
+        }
+      }
+    });
+    scheduleWarmUp(0);
+  }
+
+  @Override
+  public void disable() {
+    operators.stop();
+    stopMetricsDump();
+
+    WhitelistStack current;
+    synchronized (this) {
+      disabled = true;
+      current = stack;
+      stack = null;
+    }
+    // a stack that is still warming up is closed by the warm-up itself
+    warmUpExecutor.shutdownNow();
+    try {
+      warmUpExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (current != null) {
+      current.retire(STACK_GRACE_PERIOD, false);
+    }
 
-    resolver =
-        new CombinedProfileService(new WhitelistManagerService(whitelistManager), HttpRepositoryService.forMinecraft());
+    try {
+      profileCache.save(getProfileCacheFile());
+    } catch (IOException e) {
+      CommandBook.logger().log(Level.WARNING, "Failed to save the profile cache.", e);
+    }
+    audit.close();
   }
 
   @Override
   public void reload() {
     super.reload();
     configure(config);
+    throttle = setupThrottle();
+    AuditLog previous = audit;
+    audit = setupAuditLog();
+    previous.close();
 
-    whitelistManager = setupWhitelistManager();
+    operators.start(opRefreshTicks());
+    startMetricsDump();
+
+    // the current stack keeps serving until the new one is ready
+    scheduleWarmUp(0);
   }
 
   /**
-   * Setups the WhitelistManager by initializing the appreciable one.
+   * Schedules setting up and warming up a new WhitelistStack with the current
+   * configuration in the background.
    *
-   * @return the appreciable WhitelistManager
+   * @param delay the delay in milliseconds
    */
-  private WhitelistManager setupWhitelistManager() {
-    return new MySQLWhitelistManager(config.mysqlDsn, config.mysqlTableName, config.mysqlUser, config.mysqlPassword);
+  private void scheduleWarmUp(long delay) {
+    warmUpExecutor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        warmUp();
+      }
+    }, delay, TimeUnit.MILLISECONDS);
   }
 
   /**
-   * Called asynchronous when a player tries to join the server.
+   * Sets up a new WhitelistStack and replaces the current one with it, once
+   * it is ready. The current one is retired afterwards. If the new stack
+   * cannot be set up, the current one is kept; if there is none yet, setting
+   * up is retried after a while.
+   */
+  private void warmUp() {
+    boolean initial = stack == null;
+    long start = System.currentTimeMillis();
+    WhitelistStack fresh;
+    try {
+      fresh = setupStack();
+    } catch (IncompatibleSchemaException e) {
+      // retrying does not help until the table has been fixed
+      CommandBook.logger().log(Level.SEVERE, "The whitelist table is incompatible, please fix it and reload: "
+                                             + e.getMessage());
+      return;
+    } catch (RuntimeException e) {
+      if (initial) {
+        CommandBook.logger().log(Level.SEVERE, "Failed to set up the whitelist, retrying in "
+                                               + TimeUnit.MILLISECONDS.toSeconds(WARM_UP_RETRY_DELAY)
+                                               + " seconds.", e);
+        warmUpExecutor.schedule(new Runnable() {
+          @Override
+          public void run() {
+            // a reload may have set up a stack in the meantime
+            if (stack == null) {
+              warmUp();
+            }
+          }
+        }, WARM_UP_RETRY_DELAY, TimeUnit.MILLISECONDS);
+      } else {
+        CommandBook.logger().log(Level.SEVERE, "Failed to set up the whitelist with the new configuration, "
+                                               + "keeping the previous one.", e);
+      }
+      return;
+    }
+
+    WhitelistStack old;
+    synchronized (this) {
+      old = disabled ? fresh : stack;
+      if (!disabled) {
+        stack = fresh;
+      }
+    }
+    firstStack.countDown();
+    CommandBook.logger().info("The whitelist is ready (" + (System.currentTimeMillis() - start) + " ms).");
+    if (old != null) {
+      boolean handedOver = old.getFileManager() != null && old.getFileManager() == fresh.getFileManager();
+      old.retire(STACK_GRACE_PERIOD, handedOver && old != fresh);
+    }
+  }
+
+  /**
+   * Gets the current WhitelistStack for a command.
    *
-   * @param event the event
+   * @return the WhitelistStack
+   * @throws CommandException if the whitelist is still being set up
    */
-  @EventHandler(priority = EventPriority.HIGHEST)
-  public void onAsyncPlayerPreLoginEvent(final AsyncPlayerPreLoginEvent event) {
-    CommandBook.logger().info(event.getName() + " is trying to join...");
+  private WhitelistStack stack() throws CommandException {
+    WhitelistStack current = stack;
+    if (current == null) {
+      throw new CommandException("The whitelist is still being set up, please try again in a moment.");
+    }
+    return current;
+  }
 
-    if (maintenanceMode) {
-      Future<Boolean>
-          future =
-          CommandBook.server().getScheduler().callSyncMethod(CommandBook.inst(), new Callable<Boolean>() {
+  /**
+   * Acquires the current WhitelistStack for a command. It must be released
+   * once the command has finished.
+   *
+   * @return the WhitelistStack
+   * @throws CommandException if the whitelist is still being set up
+   */
+  private WhitelistStack acquireStack() throws CommandException {
+    WhitelistStack current = stack();
+    // a stack that has just been retired is replaced already
+    while (!current.acquire()) {
+      current = stack();
+    }
+    return current;
+  }
 
-            @Override
-            public Boolean call() {
-              return CommandBook.server().getOfflinePlayer(event.getUniqueId()).isOp();
+  /**
+   * Setups the LoginThrottle as configured.
+   *
+   * @return the LoginThrottle
+   */
+  private LoginThrottle setupThrottle() {
+    return new LoginThrottle(TimeUnit.SECONDS.toMillis(config.throttleRejectTtl), config.throttleAddressRate,
+                             config.throttleAddressBurst, config.throttleUniqueIdRate, config.throttleUniqueIdBurst);
+  }
+
+  /**
+   * Setups the AuditLog as configured.
+   *
+   * @return the AuditLog
+   */
+  private AuditLog setupAuditLog() {
+    return new AuditLog(new File(CommandBook.inst().getDataFolder(), "audit"), Math.max(1, config.auditBufferSize),
+                        Math.max(1, config.auditFlushInterval), Math.max(1, config.auditMaxFileSize) * 1024L,
+                        Math.max(0, config.auditMaxFiles), config.auditConsoleSampleRate);
+  }
+
+  /**
+   * Gets the interval in which the operator snapshot is refreshed.
+   *
+   * @return the interval in ticks
+   */
+  private long opRefreshTicks() {
+    return Math.max(1, config.opRefreshInterval) * 20L;
+  }
+
+  /**
+   * Starts writing the metrics to a file periodically, as configured by the
+   * {@code metrics.dumpIntervalSeconds} setting, replacing any previously
+   * started task.
+   */
+  private void startMetricsDump() {
+    stopMetricsDump();
+    if (config.metricsDumpInterval <= 0) {
+      return;
+    }
+    final File file = new File(CommandBook.inst().getDataFolder(), "metrics.txt");
+    long interval = config.metricsDumpInterval * 20L;
+    metricsDump =
+        CommandBook.server().getScheduler().runTaskTimerAsynchronously(CommandBook.inst(), new Runnable() {
+          @Override
+          public void run() {
+            try {
+              metrics.dump(file);
+            } catch (IOException e) {
+              CommandBook.logger().log(Level.WARNING, "Failed to write the metrics.", e);
             }
+          }
+        }, interval, interval);
+  }
 
-          });
+  /**
+   * Stops writing the metrics to a file, if it was started.
+   */
+  private void stopMetricsDump() {
+    if (metricsDump != null) {
+      metricsDump.cancel();
+      metricsDump = null;
+    }
+  }
 
-      boolean isOp = false;
-      try {
-        isOp = future.get();
-      } catch (Exception e) {
-        CommandBook.logger().log(Level.WARNING, "Error while checking op-status for " + event.getName() + ". ", e);
+  /**
+   * Setups a WhitelistStack on top of the backend selected by the
+   * {@code backend} setting. A MySQL whitelist is cached or filtered, as
+   * configured, and if it is shared with other servers, a ChangeLogPoller is
+   * started that applies their changes.
+   *
+   * @return the WhitelistStack
+   * @throws IllegalStateException if the backend cannot be set up
+   */
+  private WhitelistStack setupStack() throws IllegalStateException {
+    WhitelistManager manager;
+    ChangeLogPoller changeLogPoller = null;
+    LocalFileWhitelistManager fileManager = null;
+
+    if ("file".equalsIgnoreCase(config.backend)) {
+      fileManager = setupFileManager();
+      manager = fileManager;
+    } else {
+      MySQLWhitelistManager database = setupDatabaseManager();
+      boolean sync = config.syncEnabled && database.enableChangeLog();
+      // taken before the cache or filter is loaded, changes made meanwhile are applied twice, which is harmless
+      long sequence = sync ? database.getLatestSequence() : 0;
+
+      WhitelistChangeListener listener = null;
+      if (config.cacheEnabled) {
+        // the compact index trades lock-free lookups for far less memory on very large whitelists
+        WhitelistIndex index =
+            config.cacheCompactIndex ? new PackedWhitelistIndex(database.count()) : new HashWhitelistIndex();
+        CachingWhitelistManager cache;
+        try {
+          cache = new CachingWhitelistManager(database, index);
+        } catch (IllegalStateException e) {
+          database.close();
+          throw e;
+        }
+        manager = cache;
+        listener = cache;
+      } else if (config.filterEnabled) {
+        FilteringWhitelistManager filter =
+            new FilteringWhitelistManager(database, config.filterFalsePositiveRate, config.filterMaxMemory * 1024L,
+                                          TimeUnit.MINUTES.toMillis(config.filterRebuildInterval));
+        manager = filter;
+        listener = filter;
+      } else {
+        manager = database;
       }
-      if (!isOp) {
-        event.disallow(Result.KICK_OTHER, config.maintenanceMessage);
-        CommandBook.logger().info("Disallow (maintenance mode)");
+      if (sync && listener != null) {
+        changeLogPoller =
+            new ChangeLogPoller(database, listener, sequence, config.syncPollInterval,
+                                TimeUnit.HOURS.toMillis(config.syncRetention));
+      }
+    }
+
+    manager = new InstrumentedWhitelistManager(manager, metrics, "manager.");
+    NameUpdateQueue nameUpdates =
+        new NameUpdateQueue(manager, config.nameUpdateCapacity, config.nameUpdateFlushInterval);
+    BoundedCommandExecutor commandExecutor =
+        new BoundedCommandExecutor(config.asyncThreads, config.asyncQueueCapacity);
+    return new WhitelistStack(manager, commandExecutor, nameUpdates,
+                              new LoginGate(manager, nameUpdates, config.allowNameChanges), setupResolver(manager),
+                              changeLogPoller, fileManager);
+  }
+
+  /**
+   * Setups the local file backend. If the current stack uses it already, its
+   * instance is reused, since a second instance would overwrite the changes
+   * of the first one when compacting. Changed compaction settings therefore
+   * apply after a restart.
+   *
+   * @return the LocalFileWhitelistManager
+   * @throws IllegalStateException if the files cannot be read
+   */
+  private LocalFileWhitelistManager setupFileManager() throws IllegalStateException {
+    WhitelistStack current = stack;
+    if (current != null && current.getFileManager() != null) {
+      return current.getFileManager();
+    }
+    File dataFolder = CommandBook.inst().getDataFolder();
+    try {
+      LocalFileWhitelistManager manager =
+          new LocalFileWhitelistManager(new File(dataFolder, "whitelist.dat"),
+                                        new File(dataFolder, "whitelist.journal"), config.fileCompactThreshold,
+                                        TimeUnit.MINUTES.toMillis(config.fileCompactInterval));
+      if (manager.getCutOffBytes() > 0) {
+        CommandBook.logger().warning("Cut off an incomplete record (" + manager.getCutOffBytes()
+                                     + " bytes) at the end of the whitelist journal.");
+      }
+      return manager;
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to load the whitelist from the data folder.", e);
+    }
+  }
+
+  /**
+   * Setups the MySQL backend, updates its schema and warms up its
+   * connections.
+   *
+   * @return the MySQLWhitelistManager
+   * @throws IllegalStateException if the schema cannot be updated or the whitelist table cannot be read
+   */
+  private MySQLWhitelistManager setupDatabaseManager() throws IllegalStateException {
+    ConnectionPool pool =
+        new ConnectionPool(config.mysqlDsn, config.mysqlUser, config.mysqlPassword, config.poolMinSize,
+                           config.poolMaxSize, TimeUnit.SECONDS.toMillis(config.poolIdleTimeout),
+                           TimeUnit.SECONDS.toMillis(config.poolValidationInterval), config.poolBorrowTimeout);
+    // count the errors the manager swallows with the errors of the InstrumentedWhitelistManager
+    WhitelistErrorListener errorListener = new WhitelistErrorListener() {
+      @Override
+      public void failed(String operation, Exception cause) {
+        metrics.histogram("manager." + operation).recordError();
+      }
+    };
+    MySQLWhitelistManager manager = new MySQLWhitelistManager(pool, config.mysqlTableName, errorListener);
+    try {
+      manager.updateSchema();
+    } catch (IllegalStateException e) {
+      manager.close();
+      throw e;
+    }
+    if (!manager.warmUp()) {
+      manager.close();
+      throw new IllegalStateException("Failed to read the whitelist table '" + config.mysqlTableName + "'.");
+    }
+    return manager;
+  }
+
+  /**
+   * Setups the ProfileService that resolves names by checking the given
+   * WhitelistManager first and the cached Mojang profile service second.
+   *
+   * @param manager the WhitelistManager
+   * @return the ProfileService
+   */
+  private ProfileService setupResolver(WhitelistManager manager) {
+    return new CombinedProfileService(new WhitelistManagerService(manager, MySQLWhitelistManager.LOOKUP_CHUNK_SIZE),
+                                      profileCache);
+  }
+
+  /**
+   * Gets the file the profile cache is persisted to.
+   *
+   * @return the file
+   */
+  private File getProfileCacheFile() {
+    return new File(CommandBook.inst().getDataFolder(), "profileCache.dat");
+  }
+
+  /**
+   * Acquires the current WhitelistStack for a login. While the first stack is
+   * being set up, this waits up to the configured time for it. The stack must
+   * be released once the login has been checked.
+   *
+   * @return the WhitelistStack or {@code null} if none is ready
+   */
+  @Nullable
+  private WhitelistStack awaitStack() {
+    WhitelistStack current = stack;
+    if (current == null) {
+      try {
+        firstStack.await(config.startupLoginWait, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
+      current = stack;
+    }
+    // a stack that has just been retired is replaced already
+    while (current != null && !current.acquire()) {
+      current = stack;
+    }
+    return current;
+  }
+
+  /**
+   * Called asynchronous when a player tries to join the server.
+   *
+   * @param event the event
+   */
+  @EventHandler(priority = EventPriority.HIGHEST)
+  public void onAsyncPlayerPreLoginEvent(final AsyncPlayerPreLoginEvent event) {
+    // throttled attempts are not audited, so a flood does not crowd the other events out of the audit buffer
+    if (!throttle.tryAcquire(event.getAddress(), event.getUniqueId())) {
+      event.disallow(Result.KICK_OTHER, config.throttledMessage);
       return;
     }
 
-    CheckResult result = whitelistManager.contains(event.getUniqueId());
+    String address = event.getAddress() != null ? event.getAddress().getHostAddress() : null;
 
-    if (!result.isOnWhitelist()) {
-      event.disallow(Result.KICK_WHITELIST, config.notOnWhitelistMessage);
-      CommandBook.logger().info("Disallow (not on whitelist)");
+    WhitelistStack current = awaitStack();
+    if (current == null) {
+      event.disallow(Result.KICK_OTHER, config.startingMessage);
+      audit.record(AuditLog.Type.NOT_READY, event.getUniqueId(), event.getName(), address);
       return;
     }
 
-    if (!config.allowNameChanges) {
-      if (!result.getWhitelistedName().equals(event.getName())) {
+    try {
+      checkLogin(event, current, address);
+    } finally {
+      current.release();
+    }
+  }
 
-        event.disallow(Result.KICK_WHITELIST, String.format(config.nameChangedMessage, result.getWhitelistedName()));
-        CommandBook.logger().info("Disallow (name changed to ' " + event.getName() + "')");
-        return;
+  /**
+   * Decides whether the player of the given event may join.
+   *
+   * @param event   the event
+   * @param current the acquired WhitelistStack
+   * @param address the address of the player or {@code null} if it is unknown
+   */
+  private void checkLogin(AsyncPlayerPreLoginEvent event, WhitelistStack current, @Nullable String address) {
+    if (maintenanceMode) {
+      if (!operators.isOp(event.getUniqueId())) {
+        event.disallow(Result.KICK_OTHER, config.maintenanceMessage);
+        audit.record(AuditLog.Type.MAINTENANCE, event.getUniqueId(), event.getName(), address);
+      } else {
+        audit.record(AuditLog.Type.ALLOWED, event.getUniqueId(), event.getName(), address);
       }
-
-      // if name changes are not allowed, there is no need to update the
-      // stored name
       return;
     }
 
-    // Only update the name for players who are on the Whitelist.
-    whitelistManager.updateName(event.getUniqueId(), event.getName());
+    if (throttle.isRecentlyRejected(event.getUniqueId())) {
+      event.disallow(Result.KICK_WHITELIST, config.notOnWhitelistMessage);
+      audit.record(AuditLog.Type.NOT_ON_WHITELIST, event.getUniqueId(), event.getName(), address);
+      return;
+    }
 
+    long start = System.nanoTime();
+    Decision decision = current.getLoginGate().check(event.getUniqueId(), event.getName());
+    loginChecks.recordSince(start);
+    switch (decision.getVerdict()) {
+      case NOT_ON_WHITELIST:
+        throttle.rejected(event.getUniqueId());
+        event.disallow(Result.KICK_WHITELIST, config.notOnWhitelistMessage);
+        audit.record(AuditLog.Type.NOT_ON_WHITELIST, event.getUniqueId(), event.getName(), address);
+        break;
+      case NAME_CHANGED:
+        event.disallow(Result.KICK_WHITELIST, String.format(config.nameChangedMessage, decision.getWhitelistedName()));
+        audit.record(AuditLog.Type.NAME_CHANGED, event.getUniqueId(), event.getName(), address);
+        break;
+      default:
+        audit.record(AuditLog.Type.ALLOWED, event.getUniqueId(), event.getName(), address);
+        break;
+    }
   }
 
   /**
@@ -217,48 +752,140 @@ public class Whitelister extends BukkitComponent implements Listener {
   public class WhitelistCommands {
 
     /**
-     * Adds a player to the whitelist.
+     * Adds one or more players to the whitelist.
      *
      * @param args   the command-arguments
      * @param sender the CommandSender who initiated the command
      * @throws CommandException if the command is cancelled
      */
-    @Command(aliases = {
-        "add"}, usage = "[name]", desc = "Adds the player of the given name to the whitelist", min = 1, max = 1)
+    @Command(aliases = {"add"}, usage = "<name...>", desc = "Adds the players of the given names to the whitelist",
+        min = 1, max = -1)
     @CommandPermissions({"whitelister.add"})
-    public void add(CommandContext args, CommandSender sender) throws CommandException {
-      String name = args.getString(0);
-      UUID id = getUUID(name);
+    public void add(CommandContext args, final CommandSender sender) throws CommandException {
+      final List<String> names = getNames(args);
+      final WhitelistStack current = acquireStack();
+      runCommandTask(current, sender, new Callable<String>() {
+        @Override
+        public String call() throws CommandException {
+          WhitelistManager manager = current.getManager();
+          if (names.size() == 1) {
+            return addSingle(manager, getUUID(current.getResolver(), names.get(0)), names.get(0), sender.getName());
+          }
+          Map<String, Profile> profiles = resolveAll(current.getResolver(), names);
 
-      if (whitelistManager.contains(id).isOnWhitelist()) {
-        throw new CommandException("'" + name + "' is already on the whitelist.");
-      }
+          List<String> unknown = new ArrayList<String>();
+          Map<UUID, String> requested = new LinkedHashMap<UUID, String>();
+          Map<UUID, String> entries = new LinkedHashMap<UUID, String>();
+          for (String name : names) {
+            Profile profile = profiles.get(name.toLowerCase(Locale.ENGLISH));
+            if (profile == null) {
+              unknown.add(name);
+            } else {
+              requested.put(profile.getUniqueId(), name);
+              entries.put(profile.getUniqueId(), profile.getName());
+            }
+          }
+
+          List<String> present = new ArrayList<String>();
+          for (UUID id : manager.getNames(entries.keySet()).keySet()) {
+            present.add(requested.remove(id));
+            entries.remove(id);
+          }
 
-      whitelistManager.add(id, name);
-      sender.sendMessage("'" + name + "' was added to the whitelist.");
+          int added = 0;
+          List<String> failed = new ArrayList<String>();
+          if (!entries.isEmpty()) {
+            added = manager.addAll(entries);
+            throttle.forget(entries.keySet());
+            pager.invalidate();
+            recordAll(AuditLog.Type.ADDED, entries, added, sender.getName());
+          }
+          if (added < entries.size()) {
+            // entries added by another server in the meantime are skipped, only the missing ones have failed
+            Map<UUID, String> stored = manager.getNames(entries.keySet());
+            for (UUID id : entries.keySet()) {
+              if (!stored.containsKey(id)) {
+                failed.add(requested.remove(id));
+              }
+            }
+          }
+          List<String> changed = new ArrayList<String>(requested.values());
+          return summarize("added to", changed, added, failed, "already on", present, unknown);
+        }
+      });
     }
 
     /**
-     * Removes a player from the whitelist.
+     * Removes one or more players from the whitelist.
      *
      * @param args   the command-arguments
      * @param sender the CommandSender who initiated the command
      * @throws CommandException if the command is cancelled
      */
-    @Command(aliases = {"remove",
-                        "rm"}, usage = "[name]", desc = "Removes the player of the given name from the whitelist",
-        min = 1, max = 1)
+    @Command(aliases = {"remove", "rm"}, usage = "<name...>",
+        desc = "Removes the players of the given names from the whitelist", min = 1, max = -1)
     @CommandPermissions({"whitelister.remove"})
-    public void remove(CommandContext args, CommandSender sender) throws CommandException {
-      String name = args.getString(0);
-      UUID id = getUUID(name);
+    public void remove(CommandContext args, final CommandSender sender) throws CommandException {
+      final List<String> names = getNames(args);
+      final WhitelistStack current = acquireStack();
+      runCommandTask(current, sender, new Callable<String>() {
+        @Override
+        public String call() throws CommandException {
+          WhitelistManager manager = current.getManager();
+          if (names.size() == 1) {
+            String name = names.get(0);
+            UUID id = getUUID(current.getResolver(), name);
+            RemoveResult result = manager.remove(id);
+            if (result == RemoveResult.NOT_PRESENT) {
+              throw new CommandException("'" + name + "' is not on the whitelist.");
+            } else if (result == RemoveResult.FAILED) {
+              throw new CommandException("Failed to remove '" + name + "' from the whitelist, see the console.");
+            }
+            pager.invalidate();
+            audit.record(AuditLog.Type.REMOVED, id, name, sender.getName());
+            return "'" + name + "' was removed from the whitelist.";
+          }
+          Map<String, Profile> profiles = resolveAll(current.getResolver(), names);
 
-      if (!whitelistManager.contains(id).isOnWhitelist()) {
-        throw new CommandException("'" + name + "' is not on the whitelist.");
-      }
+          List<String> unknown = new ArrayList<String>();
+          Map<UUID, String> requested = new LinkedHashMap<UUID, String>();
+          for (String name : names) {
+            Profile profile = profiles.get(name.toLowerCase(Locale.ENGLISH));
+            if (profile == null) {
+              unknown.add(name);
+            } else {
+              requested.put(profile.getUniqueId(), name);
+            }
+          }
+
+          Map<UUID, String> present = manager.getNames(requested.keySet());
+          int count = 0;
+          Map<UUID, String> remaining = ImmutableMap.of();
+          if (!present.isEmpty()) {
+            count = manager.removeAll(present.keySet());
+            pager.invalidate();
+            recordAll(AuditLog.Type.REMOVED, present, count, sender.getName());
+            if (count < present.size()) {
+              // entries removed by another server in the meantime are skipped, only the remaining ones have failed
+              remaining = manager.getNames(present.keySet());
+            }
+          }
 
-      whitelistManager.remove(id);
-      sender.sendMessage("'" + name + "' was removed from the whitelist.");
+          List<String> removed = new ArrayList<String>();
+          List<String> failed = new ArrayList<String>();
+          List<String> absent = new ArrayList<String>();
+          for (Entry<UUID, String> entry : requested.entrySet()) {
+            if (remaining.containsKey(entry.getKey())) {
+              failed.add(entry.getValue());
+            } else if (present.containsKey(entry.getKey())) {
+              removed.add(entry.getValue());
+            } else {
+              absent.add(entry.getValue());
+            }
+          }
+          return summarize("removed from", removed, count, failed, "not on", absent, unknown);
+        }
+      });
     }
 
     /**
@@ -273,20 +900,23 @@ public class Whitelister extends BukkitComponent implements Listener {
         = 1)
     @CommandPermissions({"whitelister.check"})
     public void check(CommandContext args, CommandSender sender) throws CommandException {
-      String name = args.getString(0);
-      UUID id = getUUID(name);
-
-      CheckResult result = whitelistManager.contains(id);
-      if (!result.isOnWhitelist()) {
-        sender.sendMessage(ChatColor.RED + "'" + name + "' is not on the whitelist.");
-      } else if (!result.getWhitelistedName().equals(name)) {
-        sender.sendMessage(
-            ChatColor.YELLOW + "'" + name + "' is on the whitelist, but with a different name ('" + result
-                .getWhitelistedName() + ").");
-      } else {
-        sender.sendMessage(ChatColor.GREEN + "'" + name + "' is on the whitelist.");
-      }
+      final String name = args.getString(0);
+      final WhitelistStack current = acquireStack();
+      runCommandTask(current, sender, new Callable<String>() {
+        @Override
+        public String call() throws CommandException {
+          UUID id = getUUID(current.getResolver(), name);
 
+          CheckResult result = current.getManager().contains(id);
+          if (!result.isOnWhitelist()) {
+            return ChatColor.RED + "'" + name + "' is not on the whitelist.";
+          } else if (!result.getWhitelistedName().equalsIgnoreCase(name)) {
+            return ChatColor.YELLOW + "'" + name + "' is on the whitelist, but with a different name ('" + result
+                .getWhitelistedName() + ").";
+          }
+          return ChatColor.GREEN + "'" + name + "' is on the whitelist.";
+        }
+      });
     }
 
     /**
@@ -298,13 +928,17 @@ public class Whitelister extends BukkitComponent implements Listener {
      */
     @Command(aliases = {"list"}, usage = "[#]", desc = "Lists all players on the whitelist", max = 1)
     @CommandPermissions({"whitelister.list"})
-    public void list(CommandContext args, CommandSender sender) throws CommandException {
-      new PaginatedResult<Entry<UUID, String>>("Whitelist (Name - UUID)") {
+    public void list(CommandContext args, final CommandSender sender) throws CommandException {
+      final int page = args.getInteger(0, 1);
+      final WhitelistStack current = acquireStack();
+      runCommandTask(current, sender, new Callable<String>() {
+        @Nullable
         @Override
-        public String format(Entry<UUID, String> entry) {
-          return ChatColor.GRAY + entry.getValue() + ChatColor.WHITE + " - " + ChatColor.GRAY + entry.getKey();
+        public String call() {
+          pager.display(current.getManager(), sender, page);
+          return null;
         }
-      }.display(sender, whitelistManager.getWhitelist().entrySet(), args.getInteger(0, 1));
+      });
     }
 
     /**
@@ -327,39 +961,71 @@ public class Whitelister extends BukkitComponent implements Listener {
         throw new CommandException("Failed to create the export file: " + e);
       }
 
-      FileOutputStream output = null;
+      WhitelistStack current = acquireStack();
+      runStackTask(current, new ExportTask(current.getManager(), exportFile, sender));
+      sender.sendMessage(ChatColor.GRAY + "Exporting whitelist entries to '" + exportFile.getAbsolutePath() + "'...");
+    }
 
+    /**
+     * Imports entries to the whitelist.
+     *
+     * @param args   the command-arguments
+     * @param sender the CommandSender who initiated the command
+     * @throws CommandException if the command is cancelled
+     */
+    @Command(aliases = {"import"}, usage = "<file>", desc = "Imports whitelist entries from a CSV file", min = 1,
+        max = 1)
+    @CommandPermissions({"whitelister.import"})
+    public void importCmd(CommandContext args, CommandSender sender) throws CommandException {
+      File importFile;
       try {
-        output = new FileOutputStream(exportFile);
-        OutputStreamWriter streamWriter = new OutputStreamWriter(output, Charsets.UTF_8);
-        BufferedWriter writer = new BufferedWriter(streamWriter);
-
-        CSVWriter csv = new CSVWriter(writer);
-
-        for (Entry<UUID, String> entry : whitelistManager.getWhitelist().entrySet()) {
-
-          csv.writeNext(new String[]{entry.getValue(), entry.getKey().toString()});
+        File dataFolder = CommandBook.inst().getDataFolder().getCanonicalFile();
+        importFile = new File(dataFolder, args.getString(0)).getCanonicalFile();
+        // reject relative paths like '../' and absolute paths that leave the data folder
+        if (!importFile.getPath().startsWith(dataFolder.getPath() + File.separator)) {
+          throw new CommandException("The import file must be located in the data folder.");
         }
-
-        csv.flush();
-        csv.close();
-      } catch (UnsupportedEncodingException e) {
-        throw new CommandException("Encoding of the export file is unsupported.");
-      } catch (FileNotFoundException e) {
-        throw new CommandException("The export file should have been created, but still does not exist.");
       } catch (IOException e) {
-        throw new CommandException("Failed to write the export file: " + e);
-      } finally {
-        if (output != null) {
-          try {
-            output.close();
-          } catch (IOException e) {
-            // ignore
-          }
-        }
+        throw new CommandException("Failed to resolve the import file: " + e);
+      }
+      if (!importFile.isFile()) {
+        throw new CommandException("The import file '" + importFile.getAbsolutePath() + "' does not exist.");
+      }
+
+      WhitelistStack current = acquireStack();
+      runStackTask(current, new ImportTask(current.getManager(), throttle, pager, audit, importFile, sender,
+                                           Math.max(1, config.importBatchSize)));
+      sender.sendMessage(ChatColor.GRAY + "Importing whitelist entries from '" + importFile.getAbsolutePath()
+                         + "'...");
+    }
+
+    /**
+     * Shows the metrics of all measured operations.
+     *
+     * @param args   the command-arguments
+     * @param sender the CommandSender who initiated the command
+     * @throws CommandException if the command is cancelled
+     */
+    @Command(aliases = {"stats"}, desc = "Shows call counts and latencies of the whitelist operations", max = 0)
+    @CommandPermissions({"whitelister.stats"})
+    public void stats(CommandContext args, CommandSender sender) throws CommandException {
+      List<String> report = metrics.report();
+      sender.sendMessage(ChatColor.GOLD + "Whitelist statistics (" + report.size() + " operations)");
+      for (String line : report) {
+        sender.sendMessage(ChatColor.GRAY + line);
       }
-      sender.sendMessage(
-          ChatColor.GREEN + "Whitelist entries succesfully exported to '" + exportFile.getAbsolutePath() + "'.");
+      WhitelistStack current = stack();
+      BoundedCommandExecutor executor = current.getCommandExecutor();
+      sender.sendMessage(ChatColor.GRAY + "Background commands: " + executor.getActive() + "/"
+                         + executor.getThreads() + " threads busy, " + executor.getQueued() + "/"
+                         + executor.getQueueCapacity() + " queued, " + executor.getCompleted() + " completed, "
+                         + executor.getRejected() + " rejected");
+      sender.sendMessage(ChatColor.GRAY + "Pending name updates: " + current.getNameUpdates().getPending());
+      sender.sendMessage(ChatColor.GRAY + "Throttled logins: " + throttle.getThrottledByAddress() + " by address, "
+                         + throttle.getThrottledByUniqueId() + " by UUID; " + throttle.getCachedRejects()
+                         + " rejects answered from cache; " + throttle.getTracked() + " keys tracked");
+      sender.sendMessage(ChatColor.GRAY + "Audit log: " + audit.getPending() + " events pending, "
+                         + audit.getDropped() + " dropped");
     }
 
     /**
@@ -379,13 +1045,16 @@ public class Whitelister extends BukkitComponent implements Listener {
           throw new CommandException("Server is not on maintenance mode!");
         }
         maintenanceMode = false;
+        audit.record(AuditLog.Type.MAINTENANCE_DISABLED, null, null, sender.getName());
         sender.sendMessage(ChatColor.GREEN + "Disabled maintenance-mode, everyone can join.");
       } else {
         if (maintenanceMode) {
           throw new CommandException(
               "Server is already in maintenance mode - use '/whitelist maintenance -c' to disable it.");
         }
+        operators.run();
         maintenanceMode = true;
+        audit.record(AuditLog.Type.MAINTENANCE_ENABLED, null, null, sender.getName());
 
         CommandBook.server().broadcastMessage(ChatColor.RED + config.maintenanceEnabledMessage);
 
@@ -424,15 +1093,230 @@ public class Whitelister extends BukkitComponent implements Listener {
     }
   }
 
+  /**
+   * Sends the given message to the given CommandSender from within the main
+   * server thread. This method can be called from any thread.
+   *
+   * @param sender  the CommandSender
+   * @param message the message
+   */
+  static void sendMessageSync(final CommandSender sender, final String message) {
+    CommandBook.server().getScheduler().runTask(CommandBook.inst(), new Runnable() {
+      @Override
+      public void run() {
+        sender.sendMessage(message);
+      }
+    });
+  }
+
+  /**
+   * Runs the given task of a command on the background threads of the given
+   * stack. Once it completes, the message it returns is sent to the given
+   * CommandSender from within the main server thread. If the task fails with
+   * a CommandException, its message is sent instead.
+   *
+   * @param stack  the acquired WhitelistStack, which is released once the task has finished
+   * @param sender the CommandSender who initiated the command
+   * @param task   the task that returns the message or {@code null} if it informs the sender itself
+   */
+  private void runCommandTask(final WhitelistStack stack, final CommandSender sender, Callable<String> task) {
+    final ListenableFuture<String> future = stack.getCommandExecutor().submit(task);
+    // released right away, since the main thread might be waiting for the stack to be closed
+    future.addListener(new Runnable() {
+      @Override
+      public void run() {
+        stack.release();
+      }
+    }, SAME_THREAD);
+    future.addListener(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          String message = future.get();
+          if (message != null) {
+            sender.sendMessage(message);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof CommandException) {
+            sender.sendMessage(ChatColor.RED + cause.getMessage());
+          } else if (cause instanceof RejectedExecutionException) {
+            sender.sendMessage(ChatColor.RED + "Too many whitelist operations are pending, please try again later.");
+          } else {
+            CommandBook.logger().log(Level.SEVERE, "Failed to run a whitelist command.", cause);
+            sender.sendMessage(ChatColor.RED + "An error occurred, see the console for details.");
+          }
+        }
+      }
+    }, mainThread);
+  }
+
+  /**
+   * Runs a long task, such as an import, with Bukkit's asynchronous scheduler
+   * and releases the given WhitelistStack once it has finished.
+   *
+   * @param stack the acquired WhitelistStack
+   * @param task  the task
+   */
+  private void runStackTask(final WhitelistStack stack, final Runnable task) {
+    CommandBook.server().getScheduler().runTaskAsynchronously(CommandBook.inst(), new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.run();
+        } finally {
+          stack.release();
+        }
+      }
+    });
+  }
+
+  /**
+   * Gets the names given as arguments of a command, without duplicates. Names
+   * are compared case-insensitively; the first spelling wins.
+   *
+   * @param args the command-arguments
+   * @return the names in the order they were given
+   */
+  private static List<String> getNames(CommandContext args) {
+    Map<String, String> names = new LinkedHashMap<String, String>();
+    for (int i = 0; i < args.argsLength(); i++) {
+      String name = args.getString(i);
+      String key = name.toLowerCase(Locale.ENGLISH);
+      if (!names.containsKey(key)) {
+        names.put(key, name);
+      }
+    }
+    return new ArrayList<String>(names.values());
+  }
+
+  /**
+   * Resolves all given names with a single batched lookup.
+   *
+   * @param resolver the ProfileService that resolves the names
+   * @param names    the names
+   * @return the found profiles, keyed by their lower-case names
+   * @throws CommandException if the lookup fails
+   */
+  private static Map<String, Profile> resolveAll(ProfileService resolver, List<String> names)
+      throws CommandException {
+    final Map<String, Profile> profiles = new HashMap<String, Profile>();
+    try {
+      resolver.findAllByName(names, new Predicate<Profile>() {
+        @Override
+        public boolean apply(Profile profile) {
+          profiles.put(profile.getName().toLowerCase(Locale.ENGLISH), profile);
+          return true;
+        }
+      });
+    } catch (IOException e) {
+      throw new CommandException("Failed lookup UUIDs due to an I/O error.");
+    } catch (InterruptedException e) {
+      throw new CommandException("UUID lookup was interrupted.");
+    }
+    return profiles;
+  }
+
+  /**
+   * Adds a single player to the whitelist with one atomic operation.
+   *
+   * @param manager  the WhitelistManager
+   * @param uniqueId the UUID of the player
+   * @param name     the name of the player
+   * @param actor    the name of the admin who adds the player
+   * @return the message that reports the outcome
+   * @throws CommandException if the player could not be added
+   */
+  private String addSingle(WhitelistManager manager, UUID uniqueId, String name, String actor)
+      throws CommandException {
+    AddResult result = manager.add(uniqueId, name);
+    switch (result.getStatus()) {
+      case ADDED:
+        throttle.forget(ImmutableList.of(uniqueId));
+        pager.invalidate();
+        audit.record(AuditLog.Type.ADDED, uniqueId, name, actor);
+        return "'" + name + "' was added to the whitelist.";
+      case ALREADY_PRESENT:
+        throw new CommandException("'" + name + "' is already on the whitelist.");
+      case NAME_DIFFERS:
+        throw new CommandException("'" + name + "' is already on the whitelist, but with a different name ('"
+                                   + result.getWhitelistedName() + "').");
+      default:
+        throw new CommandException("Failed to add '" + name + "' to the whitelist, see the console.");
+    }
+  }
+
+  /**
+   * Records a batch of changes made by an admin in the AuditLog.
+   *
+   * @param type    the type of the changes
+   * @param entries the UUIDs and names that should have been changed
+   * @param count   the number of entries that were actually changed
+   * @param actor   the name of the admin
+   */
+  private void recordAll(AuditLog.Type type, Map<UUID, String> entries, int count, String actor) {
+    if (count == 0) {
+      return;
+    }
+    // a batch only reports how many entries were changed, not which ones
+    String detail = count == entries.size() ? actor : actor + " (" + count + " of " + entries.size() + " changed)";
+    for (Entry<UUID, String> entry : entries.entrySet()) {
+      audit.record(type, entry.getKey(), entry.getValue(), detail);
+    }
+  }
+
+  /**
+   * Creates the message that reports the outcome of a command that changes
+   * the whitelist for several players.
+   *
+   * @param action   how the changed players relate to the whitelist, e.g. {@code "added to"}
+   * @param changed  the names that have been changed, by this or by another server
+   * @param count    the number of entries that were changed by this server
+   * @param failed   the names that could not be changed
+   * @param state    how the unchanged players relate to the whitelist, e.g. {@code "already on"}
+   * @param skipped  the names that did not need to be changed
+   * @param unknown  the names that could not be resolved
+   * @return the message
+   */
+  private static String summarize(String action, List<String> changed, int count, List<String> failed, String state,
+                                  List<String> skipped, List<String> unknown) {
+    StringBuilder message = new StringBuilder();
+    if (!changed.isEmpty()) {
+      message.append(ChatColor.GREEN).append("Players ").append(action).append(" the whitelist (")
+          .append(changed.size()).append("): ").append(Joiner.on(", ").join(changed));
+      if (count < changed.size()) {
+        message.append("\n").append(ChatColor.YELLOW).append(changed.size() - count).append(" of them ")
+            .append(changed.size() - count == 1 ? "was " : "were ").append(action)
+            .append(" the whitelist by another server in the meantime.");
+      }
+    }
+    if (!failed.isEmpty()) {
+      message.append(message.length() > 0 ? "\n" : "").append(ChatColor.RED).append("Players that could not be ")
+          .append(action).append(" the whitelist, see the console (").append(failed.size()).append("): ")
+          .append(Joiner.on(", ").join(failed));
+    }
+    if (!skipped.isEmpty()) {
+      message.append(message.length() > 0 ? "\n" : "").append(ChatColor.YELLOW).append("Players ").append(state)
+          .append(" the whitelist (").append(skipped.size()).append("): ").append(Joiner.on(", ").join(skipped));
+    }
+    if (!unknown.isEmpty()) {
+      message.append(message.length() > 0 ? "\n" : "").append(ChatColor.RED).append("Unknown names (")
+          .append(unknown.size()).append("): ").append(Joiner.on(", ").join(unknown));
+    }
+    return message.toString();
+  }
+
   /**
    * Attempts to get the UUID that identifies the player with the given name.
    *
-   * @param name the name
+   * @param resolver the ProfileService that resolves the name
+   * @param name     the name
    * @return the corresponding UUID
    * @throws CommandException if the lookup fails or no UUID could be found
    */
-  private UUID getUUID(String name) throws CommandException {
-    // this logic directly calls the WhitelistManager
+  private UUID getUUID(ProfileService resolver, String name) throws CommandException {
     Profile profile;
     try {
       profile = resolver.findByName(name);
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+/**
+ * A WhitelistManager that keeps a complete copy of the whitelist in memory.
+ *
+ * <p>Lookups are answered from a {@link WhitelistIndex} without touching the
+ * underlying manager. Modifications are written through to the underlying
+ * manager and applied to the index afterwards. Modifications made by other
+ * servers can be applied as {@link WhitelistChange}s.</p>
+ */
+public class CachingWhitelistManager implements WhitelistManager, WhitelistChangeListener {
+
+  private final WhitelistManager delegate;
+  private final WhitelistIndex index;
+
+  /**
+   * Initializes this manager with a {@link HashWhitelistIndex} and loads the
+   * whole whitelist from the given delegate.
+   *
+   * @param delegate the WhitelistManager that stores the whitelist
+   * @throws IllegalStateException if the whitelist cannot be loaded completely
+   */
+  public CachingWhitelistManager(WhitelistManager delegate) throws IllegalStateException {
+    this(delegate, new HashWhitelistIndex());
+  }
+
+  /**
+   * Initializes this manager and loads the whole whitelist from the given
+   * delegate into the given index.
+   *
+   * @param delegate the WhitelistManager that stores the whitelist
+   * @param index    the empty WhitelistIndex that holds the copy
+   * @throws IllegalStateException if the whitelist cannot be loaded completely
+   */
+  public CachingWhitelistManager(WhitelistManager delegate, final WhitelistIndex index) throws IllegalStateException {
+    this.delegate = delegate;
+    this.index = index;
+    // streamed, so the whole whitelist is never held in memory twice
+    int loaded = delegate.forEachEntry(new Predicate<Entry<UUID, String>>() {
+      @Override
+      public boolean apply(Entry<UUID, String> entry) {
+        index.put(entry.getKey(), entry.getValue());
+        return true;
+      }
+    });
+    // a partial copy would reject every player that is missing
+    if (loaded < 0) {
+      throw new IllegalStateException("Failed to load the whitelist into the cache.");
+    }
+  }
+
+  @Override
+  public synchronized AddResult add(UUID uniqueId, String name) {
+    // always ask the delegate, the entry might have been added by another server
+    AddResult result = delegate.add(uniqueId, name);
+    if (result.getStatus() != AddResult.Status.FAILED) {
+      index.put(uniqueId, result.getWhitelistedName());
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized int addAll(Map<UUID, String> entries) {
+    Map<UUID, String> missing = new LinkedHashMap<UUID, String>();
+    for (Entry<UUID, String> entry : entries.entrySet()) {
+      if (!index.contains(entry.getKey())) {
+        missing.put(entry.getKey(), entry.getValue());
+      }
+    }
+    if (missing.isEmpty()) {
+      return 0;
+    }
+    int added = delegate.addAll(missing);
+    // the delegate skips entries that another server added in the meantime and adds nothing if the transaction
+    // fails, so unless all entries have been added, the stored names are read back
+    Map<UUID, String> stored = added == missing.size() ? missing : delegate.getNames(missing.keySet());
+    for (Entry<UUID, String> entry : stored.entrySet()) {
+      index.put(entry.getKey(), entry.getValue());
+    }
+    return added;
+  }
+
+  @Override
+  public synchronized RemoveResult remove(UUID uniqueId) {
+    RemoveResult result = delegate.remove(uniqueId);
+    // an entry that is not present might have been removed by another server
+    if (result != RemoveResult.FAILED) {
+      index.remove(uniqueId);
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized int removeAll(Collection<UUID> uniqueIds) {
+    List<UUID> known = new ArrayList<UUID>();
+    for (UUID uniqueId : uniqueIds) {
+      if (index.contains(uniqueId)) {
+        known.add(uniqueId);
+      }
+    }
+    if (known.isEmpty()) {
+      return 0;
+    }
+    int removed = delegate.removeAll(known);
+    // the delegate removes nothing if the transaction fails
+    if (removed > 0) {
+      for (UUID uniqueId : known) {
+        index.remove(uniqueId);
+      }
+    }
+    return removed;
+  }
+
+  @Override
+  public synchronized boolean updateName(UUID uniqueId, String name) {
+    // the delegate reports failures by returning false, the index keeps the stored name then
+    boolean updated = delegate.updateName(uniqueId, name);
+    if (updated && index.contains(uniqueId)) {
+      index.put(uniqueId, name);
+    }
+    return updated;
+  }
+
+  @Override
+  public synchronized int updateNames(Map<UUID, String> names) {
+    int updated = delegate.updateNames(names);
+    if (updated == 0) {
+      return 0;
+    }
+    Map<UUID, String> written = names;
+    if (updated < names.size()) {
+      // only some of the names were written, the index takes whatever is stored now
+      written = delegate.getNames(names.keySet());
+    }
+    for (Entry<UUID, String> entry : written.entrySet()) {
+      if (index.contains(entry.getKey())) {
+        index.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return updated;
+  }
+
+  @Nullable
+  @Override
+  public UUID getUniqueID(String name) {
+    return index.getUniqueId(name);
+  }
+
+  @Override
+  public Map<String, UUID> getUniqueIDs(Collection<String> names) {
+    Map<String, UUID> ret = new LinkedHashMap<String, UUID>();
+    for (String name : names) {
+      UUID uniqueId = index.getUniqueId(name);
+      String stored = uniqueId != null ? index.getName(uniqueId) : null;
+      if (stored != null) {
+        ret.put(stored, uniqueId);
+      }
+    }
+    return ImmutableMap.copyOf(ret);
+  }
+
+  @Override
+  public CheckResult contains(UUID uniqueId) {
+    String name = index.getName(uniqueId);
+    return new CheckResult(name != null, name);
+  }
+
+  @Override
+  public Map<UUID, String> getNames(Collection<UUID> uniqueIds) {
+    Map<UUID, String> ret = new LinkedHashMap<UUID, String>();
+    for (UUID uniqueId : uniqueIds) {
+      String name = index.getName(uniqueId);
+      if (name != null) {
+        ret.put(uniqueId, name);
+      }
+    }
+    return ImmutableMap.copyOf(ret);
+  }
+
+  @Override
+  public Map<UUID, String> getWhitelist() {
+    final ImmutableMap.Builder<UUID, String> builder = ImmutableMap.builder();
+    index.forEachEntry(new Predicate<Entry<UUID, String>>() {
+      @Override
+      public boolean apply(Entry<UUID, String> entry) {
+        builder.put(entry.getKey(), entry.getValue());
+        return true;
+      }
+    });
+    return builder.build();
+  }
+
+  @Override
+  public Map<UUID, String> getPage(@Nullable UUID after, int limit) {
+    // paging is rare enough to leave the ordering to the underlying manager
+    return delegate.getPage(after, limit);
+  }
+
+  @Override
+  public int count() {
+    return index.size();
+  }
+
+  @Override
+  public int forEachEntry(Predicate<Entry<UUID, String>> consumer) {
+    return index.forEachEntry(consumer);
+  }
+
+  @Override
+  public synchronized void apply(WhitelistChange change) {
+    switch (change.getType()) {
+      case ADD:
+        index.put(change.getUniqueId(), change.getName());
+        break;
+      case REMOVE:
+        index.remove(change.getUniqueId());
+        break;
+      case RENAME:
+        if (index.contains(change.getUniqueId())) {
+          index.put(change.getUniqueId(), change.getName());
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown change type " + change.getType());
+    }
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import java.util.List;
+
+/**
+ * A log of all modifications of a shared whitelist, used to keep local views
+ * of the whitelist up to date.
+ */
+public interface ChangeLog {
+
+  /**
+   * Gets the sequence number of the latest recorded change.
+   *
+   * @return the sequence number or {@code 0} if no change has been recorded
+   */
+  long getLatestSequence();
+
+  /**
+   * Gets up to {@code limit} changes with a sequence number higher than the
+   * given one, ordered by their sequence number.
+   *
+   * @param sequence the sequence number of the last known change
+   * @param limit    the maximum number of changes
+   * @return an immutable list of the changes
+   */
+  List<WhitelistChange> getChangesSince(long sequence, int limit);
+
+  /**
+   * Deletes all changes that have been recorded before the given time.
+   *
+   * @param time the time in milliseconds
+   */
+  void purgeChanges(long time);
+}
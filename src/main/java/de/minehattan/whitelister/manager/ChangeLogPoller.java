@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sk89q.commandbook.CommandBook;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Polls a {@link ChangeLog} in the background and passes every new change to
+ * a {@link WhitelistChangeListener}.
+ *
+ * <p>Sequence numbers are assigned when a change is written, but changes
+ * become visible when their transaction commits, which is not necessarily in
+ * order, and rolled back changes leave gaps that are never filled. The
+ * poller therefore applies every change it has not applied yet right away
+ * and keeps a watermark below which all changes have been applied. Changes
+ * above the watermark are read again on every poll, so a transaction that
+ * commits late is still applied. Every gap is timed from the poll that
+ * first noticed it; once it has not been filled for a long time, it is
+ * assumed to be rolled back and the watermark moves past it, along with all
+ * other gaps that have expired.</p>
+ */
+public class ChangeLogPoller implements Runnable {
+
+  private static final int BATCH_SIZE = 500;
+  private static final long DEFAULT_GAP_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+  private static final long PURGE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+  private final ChangeLog changeLog;
+  private final WhitelistChangeListener listener;
+  private final long retention;
+  private final long gapTimeout;
+  private final ScheduledExecutorService executor;
+
+  private volatile long lastSequence;
+  // sequence numbers above the watermark that have been applied already
+  private final SortedSet<Long> applied = new TreeSet<Long>();
+  // the gaps between the watermark and the last applied change, by their first sequence number
+  private TreeMap<Long, Gap> gaps = new TreeMap<Long, Gap>();
+  private long lastPurge;
+
+  /**
+   * Initializes this poller and starts polling.
+   *
+   * @param changeLog     the ChangeLog to poll
+   * @param listener      the listener that receives the changes
+   * @param lastSequence  the sequence number up to which all changes are already known to the listener
+   * @param pollInterval  the time in milliseconds between two polls
+   * @param retention     the time in milliseconds changes are kept in the log or {@code 0} to keep them forever
+   */
+  public ChangeLogPoller(ChangeLog changeLog, WhitelistChangeListener listener, long lastSequence,
+                         long pollInterval, long retention) {
+    this(changeLog, listener, lastSequence, pollInterval, retention, DEFAULT_GAP_TIMEOUT);
+  }
+
+  /**
+   * Initializes this poller with the given gap timeout and starts polling.
+   *
+   * @param changeLog     the ChangeLog to poll
+   * @param listener      the listener that receives the changes
+   * @param lastSequence  the sequence number up to which all changes are already known to the listener
+   * @param pollInterval  the time in milliseconds between two polls
+   * @param retention     the time in milliseconds changes are kept in the log or {@code 0} to keep them forever
+   * @param gapTimeout    the time in milliseconds after which a gap is assumed to be rolled back
+   */
+  ChangeLogPoller(ChangeLog changeLog, WhitelistChangeListener listener, long lastSequence, long pollInterval,
+                  long retention, long gapTimeout) {
+    this.changeLog = changeLog;
+    this.listener = listener;
+    this.lastSequence = lastSequence;
+    this.retention = retention;
+    this.gapTimeout = gapTimeout;
+
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Whitelister-ChangeLog-%d").build());
+    executor.scheduleWithFixedDelay(this, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void run() {
+    try {
+      poll();
+      if (retention > 0 && System.currentTimeMillis() - lastPurge > PURGE_INTERVAL) {
+        lastPurge = System.currentTimeMillis();
+        changeLog.purgeChanges(lastPurge - retention);
+      }
+    } catch (RuntimeException e) {
+      CommandBook.logger().log(Level.SEVERE, "Failed to apply changes from the change log.", e);
+    }
+  }
+
+  /**
+   * Applies all changes above the watermark that have not been applied yet
+   * and advances the watermark.
+   */
+  private void poll() {
+    long cursor = lastSequence;
+    List<WhitelistChange> changes;
+    do {
+      changes = changeLog.getChangesSince(cursor, BATCH_SIZE);
+      for (WhitelistChange change : changes) {
+        cursor = change.getSequence();
+        if (applied.add(cursor)) {
+          listener.apply(change);
+        }
+      }
+    } while (changes.size() == BATCH_SIZE);
+    advance();
+  }
+
+  /**
+   * Moves the watermark up to the first gap in the applied sequence numbers
+   * that has been open for less than the timeout.
+   */
+  private void advance() {
+    long now = System.currentTimeMillis();
+    long watermark = lastSequence;
+
+    // a gap that is partly filled by a late commit keeps the time it has been noticed first
+    TreeMap<Long, Gap> current = new TreeMap<Long, Gap>();
+    long expected = watermark + 1;
+    for (long sequence : applied) {
+      if (sequence > expected) {
+        Entry<Long, Gap> known = gaps.floorEntry(expected);
+        if (known != null && known.getValue().last >= expected) {
+          current.put(expected, new Gap(sequence - 1, known.getValue().since, true));
+        } else {
+          current.put(expected, new Gap(sequence - 1, now, false));
+        }
+      }
+      expected = sequence + 1;
+    }
+    gaps = current;
+
+    while (!applied.isEmpty()) {
+      long next = applied.first();
+      if (next != watermark + 1) {
+        // a gap is never skipped by the poll that noticed it
+        Gap gap = gaps.get(watermark + 1);
+        if (!gap.known || now - gap.since < gapTimeout) {
+          break;
+        }
+        // the missing changes have been rolled back
+        gaps.remove(watermark + 1);
+      }
+      applied.remove(next);
+      watermark = next;
+    }
+    lastSequence = watermark;
+  }
+
+  /**
+   * Gets the watermark, the sequence number up to which all changes have
+   * been applied or skipped.
+   *
+   * @return the sequence number
+   */
+  public long getLastSequence() {
+    return lastSequence;
+  }
+
+  /**
+   * Stops polling.
+   */
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * A range of sequence numbers whose changes have not been seen.
+   */
+  private static final class Gap {
+
+    private final long last;
+    private final long since;
+    private final boolean known;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param last  the last missing sequence number
+     * @param since the time in milliseconds when the gap has been noticed first
+     * @param known whether the gap has been noticed by an earlier poll
+     */
+    private Gap(long last, long since, boolean known) {
+      this.last = last;
+      this.since = since;
+      this.known = known;
+    }
+  }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sk89q.commandbook.CommandBook;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * A bounded pool of JDBC connections.
+ *
+ * <p>At most {@code maxSize} connections are open at any time. Idle
+ * connections are reused in LIFO order, validated before being handed out if
+ * they have not been validated within the validation interval and closed once
+ * they stayed idle for longer than the idle timeout, as long as at least
+ * {@code minSize} connections remain open.</p>
+ */
+public class ConnectionPool {
+
+  private static final int VALIDATION_TIMEOUT = 5;
+
+  private final String dsn;
+  private final String user;
+  private final String password;
+  private final int minSize;
+  private final long idleTimeout;
+  private final long validationInterval;
+  private final long borrowTimeout;
+
+  private final Semaphore permits;
+  private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+  private final AtomicInteger open = new AtomicInteger();
+  private final AtomicLong statementCacheHits = new AtomicLong();
+  private final AtomicLong statementCacheMisses = new AtomicLong();
+  private final ScheduledExecutorService evictor;
+
+  private volatile boolean closed;
+
+  /**
+   * Initializes this pool and opens {@code minSize} connections.
+   *
+   * @param dsn                the dsn of the database
+   * @param user               the database user
+   * @param password           the user's password
+   * @param minSize            the number of connections that are kept open even if idle
+   * @param maxSize            the maximum number of open connections
+   * @param idleTimeout        the time in milliseconds after which idle connections are closed
+   * @param validationInterval the time in milliseconds after which a connection is validated before being reused
+   * @param borrowTimeout      the maximum time in milliseconds to wait for a free connection
+   * @throws IllegalArgumentException if the sizes are inconsistent
+   */
+  public ConnectionPool(String dsn, String user, String password, int minSize, int maxSize, long idleTimeout,
+                        long validationInterval, long borrowTimeout) throws IllegalArgumentException {
+    checkArgument(maxSize > 0, "maxSize must be positive");
+    checkArgument(minSize >= 0 && minSize <= maxSize, "minSize must be between 0 and maxSize");
+
+    this.dsn = dsn;
+    this.user = user;
+    this.password = password;
+    this.minSize = minSize;
+    this.idleTimeout = idleTimeout;
+    this.validationInterval = validationInterval;
+    this.borrowTimeout = borrowTimeout;
+    this.permits = new Semaphore(maxSize, true);
+
+    evictor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Whitelister-Pool-Evictor-%d").build());
+    long period = Math.max(1000, idleTimeout / 2);
+    evictor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        evictIdle();
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+
+    fillToMinimum();
+  }
+
+  /**
+   * Borrows a connection from this pool, waiting at most for the borrow
+   * timeout. The connection must be given back by calling
+   * {@link #release(PooledConnection)}.
+   *
+   * @return a valid connection
+   * @throws SQLException if no connection could be obtained
+   */
+  public PooledConnection borrow() throws SQLException {
+    if (closed) {
+      throw new SQLException("The connection pool is closed.");
+    }
+    try {
+      if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+        throw new SQLException("Timed out after " + borrowTimeout + " ms while waiting for a database connection.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a database connection.");
+    }
+
+    try {
+      PooledConnection conn;
+      while ((conn = idle.pollFirst()) != null) {
+        if (isUsable(conn)) {
+          return conn;
+        }
+        destroy(conn);
+      }
+      return create();
+    } catch (SQLException e) {
+      permits.release();
+      throw e;
+    } catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Gives a borrowed connection back to this pool. Connections that have been
+   * marked as broken are closed instead of being reused.
+   *
+   * @param conn the connection
+   */
+  public void release(PooledConnection conn) {
+    try {
+      if (closed || conn.isBroken()) {
+        destroy(conn);
+      } else {
+        conn.touch();
+        idle.offerFirst(conn);
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Closes this pool and all idle connections. Connections that are currently
+   * borrowed are closed once they are released.
+   */
+  public void close() {
+    closed = true;
+    evictor.shutdownNow();
+    PooledConnection conn;
+    while ((conn = idle.pollFirst()) != null) {
+      destroy(conn);
+    }
+  }
+
+  /**
+   * Gets the number of connections that are currently open.
+   *
+   * @return the number of open connections
+   */
+  public int getOpenConnections() {
+    return open.get();
+  }
+
+  /**
+   * Gets the number of open connections that are currently idle.
+   *
+   * @return the number of idle connections
+   */
+  public int getIdleConnections() {
+    return idle.size();
+  }
+
+  /**
+   * Gets the number of statements that were served from the statement caches
+   * of this pool's connections.
+   *
+   * @return the number of cache hits
+   */
+  public long getStatementCacheHits() {
+    return statementCacheHits.get();
+  }
+
+  /**
+   * Gets the number of statements that had to be prepared because they were
+   * not found in the statement caches of this pool's connections.
+   *
+   * @return the number of cache misses
+   */
+  public long getStatementCacheMisses() {
+    return statementCacheMisses.get();
+  }
+
+  /**
+   * Returns whether the given idle connection can be handed out, validating
+   * it if the validation interval has passed.
+   *
+   * @param conn the connection
+   * @return {@code true} if the connection is usable
+   */
+  private boolean isUsable(PooledConnection conn) {
+    long now = System.currentTimeMillis();
+    if (now - conn.getLastValidated() < validationInterval) {
+      return true;
+    }
+    try {
+      if (conn.getConnection().isValid(VALIDATION_TIMEOUT)) {
+        conn.validated(now);
+        return true;
+      }
+    } catch (SQLException e) {
+      // treated as invalid
+    }
+    return false;
+  }
+
+  /**
+   * Opens a new connection.
+   *
+   * @return the new connection
+   * @throws SQLException if a database access error occurs
+   */
+  private PooledConnection create() throws SQLException {
+    Connection conn = DriverManager.getConnection(dsn, user, password);
+    open.incrementAndGet();
+    return new PooledConnection(conn, statementCacheHits, statementCacheMisses);
+  }
+
+  /**
+   * Closes the given connection quietly.
+   *
+   * @param conn the connection
+   */
+  private void destroy(PooledConnection conn) {
+    open.decrementAndGet();
+    try {
+      conn.getConnection().close();
+    } catch (SQLException e) {
+      // ignore since we cannot do anything
+    }
+  }
+
+  /**
+   * Closes connections that have been idle for longer than the idle timeout
+   * and re-opens connections if less than {@code minSize} are open.
+   */
+  private void evictIdle() {
+    long now = System.currentTimeMillis();
+    Iterator<PooledConnection> iter = idle.descendingIterator();
+    while (iter.hasNext() && open.get() > minSize) {
+      PooledConnection conn = iter.next();
+      if (now - conn.getLastUsed() > idleTimeout && idle.removeLastOccurrence(conn)) {
+        destroy(conn);
+      }
+    }
+    fillToMinimum();
+  }
+
+  /**
+   * Opens idle connections until at least {@code minSize} connections are
+   * open.
+   */
+  private void fillToMinimum() {
+    while (!closed && open.get() < minSize && permits.tryAcquire()) {
+      try {
+        idle.offerLast(create());
+      } catch (SQLException e) {
+        CommandBook.logger().log(Level.WARNING, "Failed to open a database connection for the pool.", e);
+        return;
+      } finally {
+        permits.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sk89q.commandbook.CommandBook;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.annotation.Nullable;
+
+/**
+ * A WhitelistManager that answers checks for UUIDs that are definitely not on
+ * the whitelist from a {@link UUIDBloomFilter}, without touching the
+ * underlying manager.
+ *
+ * <p>The filter is built from the underlying manager in the background and
+ * rebuilt periodically, since removed UUIDs stay in the filter until then.
+ * Added UUIDs, including those added by other servers and applied as
+ * {@link WhitelistChange}s, are put into the filter immediately. Until the
+ * first build has finished, all checks are passed to the underlying
+ * manager.</p>
+ */
+public class FilteringWhitelistManager implements WhitelistManager, WhitelistChangeListener {
+
+  private static final CheckResult NOT_ON_WHITELIST = new CheckResult(false, null);
+  private static final int MIN_CAPACITY = 1024;
+
+  private final WhitelistManager delegate;
+  private final double falsePositiveRate;
+  private final long maxBytes;
+  private final ScheduledExecutorService rebuilder;
+
+  @Nullable
+  private volatile UUIDBloomFilter filter;
+  @Nullable
+  private volatile UUIDBloomFilter nextFilter;
+
+  /**
+   * Initializes this manager and starts building the filter.
+   *
+   * @param delegate          the WhitelistManager that stores the whitelist
+   * @param falsePositiveRate the desired false positive rate of the filter
+   * @param maxBytes          the maximum size of the filter in bytes
+   * @param rebuildInterval   the time in milliseconds between two rebuilds of the filter
+   */
+  public FilteringWhitelistManager(WhitelistManager delegate, double falsePositiveRate, long maxBytes,
+                                   long rebuildInterval) {
+    this.delegate = delegate;
+    this.falsePositiveRate = falsePositiveRate;
+    this.maxBytes = maxBytes;
+
+    rebuilder =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Whitelister-Filter-%d").build());
+    rebuilder.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          rebuild();
+        } catch (RuntimeException e) {
+          CommandBook.logger().log(Level.SEVERE, "Failed to rebuild the whitelist filter.", e);
+        }
+      }
+    }, 0, rebuildInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public AddResult add(UUID uniqueId, String name) {
+    remember(uniqueId);
+    AddResult result = delegate.add(uniqueId, name);
+    remember(uniqueId);
+    return result;
+  }
+
+  @Override
+  public int addAll(Map<UUID, String> entries) {
+    for (UUID uniqueId : entries.keySet()) {
+      remember(uniqueId);
+    }
+    int added = delegate.addAll(entries);
+    for (UUID uniqueId : entries.keySet()) {
+      remember(uniqueId);
+    }
+    return added;
+  }
+
+  @Override
+  public RemoveResult remove(UUID uniqueId) {
+    return delegate.remove(uniqueId);
+  }
+
+  @Override
+  public int removeAll(Collection<UUID> uniqueIds) {
+    return delegate.removeAll(uniqueIds);
+  }
+
+  @Override
+  public boolean updateName(UUID uniqueId, String name) {
+    return delegate.updateName(uniqueId, name);
+  }
+
+  @Override
+  public int updateNames(Map<UUID, String> names) {
+    return delegate.updateNames(names);
+  }
+
+  @Nullable
+  @Override
+  public UUID getUniqueID(String name) {
+    return delegate.getUniqueID(name);
+  }
+
+  @Override
+  public Map<String, UUID> getUniqueIDs(Collection<String> names) {
+    return delegate.getUniqueIDs(names);
+  }
+
+  @Override
+  public CheckResult contains(UUID uniqueId) {
+    UUIDBloomFilter current = filter;
+    if (current != null && !current.mightContain(uniqueId)) {
+      return NOT_ON_WHITELIST;
+    }
+    return delegate.contains(uniqueId);
+  }
+
+  @Override
+  public Map<UUID, String> getNames(Collection<UUID> uniqueIds) {
+    UUIDBloomFilter current = filter;
+    if (current == null) {
+      return delegate.getNames(uniqueIds);
+    }
+    List<UUID> candidates = new ArrayList<UUID>();
+    for (UUID uniqueId : uniqueIds) {
+      if (current.mightContain(uniqueId)) {
+        candidates.add(uniqueId);
+      }
+    }
+    return candidates.isEmpty() ? ImmutableMap.<UUID, String>of() : delegate.getNames(candidates);
+  }
+
+  @Override
+  public Map<UUID, String> getWhitelist() {
+    return delegate.getWhitelist();
+  }
+
+  @Override
+  public Map<UUID, String> getPage(@Nullable UUID after, int limit) {
+    return delegate.getPage(after, limit);
+  }
+
+  @Override
+  public int count() {
+    return delegate.count();
+  }
+
+  @Override
+  public int forEachEntry(Predicate<Entry<UUID, String>> consumer) {
+    return delegate.forEachEntry(consumer);
+  }
+
+  @Override
+  public void apply(WhitelistChange change) {
+    // removals are absorbed by the next rebuild
+    if (change.getType() == WhitelistChange.Type.ADD) {
+      remember(change.getUniqueId());
+    }
+  }
+
+  @Override
+  public void close() {
+    rebuilder.shutdownNow();
+    delegate.close();
+  }
+
+  /**
+   * Puts the given UUID into the filter and into the filter that is being
+   * built, if any.
+   *
+   * <p>Writers call this before and after writing to the underlying manager:
+   * before, so a check never misses an UUID that is already stored, and
+   * after, so a rebuild that started reading before the write was committed
+   * does not miss it either.</p>
+   *
+   * @param uniqueId the UUID
+   */
+  private void remember(UUID uniqueId) {
+    // read the next filter first, it is promoted before it is cleared
+    UUIDBloomFilter next = nextFilter;
+    UUIDBloomFilter current = filter;
+    if (next != null) {
+      next.put(uniqueId);
+    }
+    if (current != null) {
+      current.put(uniqueId);
+    }
+  }
+
+  /**
+   * Builds a new filter from all entries of the underlying manager and
+   * replaces the current one with it. If the entries cannot be read
+   * completely, the current filter is kept.
+   */
+  private void rebuild() {
+    // leave room for the entries that are added until the next rebuild
+    long capacity = Math.max(MIN_CAPACITY, delegate.count() * 2L);
+    final UUIDBloomFilter building = UUIDBloomFilter.create(capacity, falsePositiveRate, maxBytes);
+    nextFilter = building;
+    int count = delegate.forEachEntry(new Predicate<Entry<UUID, String>>() {
+      @Override
+      public boolean apply(Entry<UUID, String> entry) {
+        building.put(entry.getKey());
+        return true;
+      }
+    });
+    if (count >= 0) {
+      filter = building;
+      CommandBook.logger().fine("Rebuilt the whitelist filter from " + count + " entries ("
+                                + building.getSizeInBytes() / 1024 + " KiB).");
+    } else {
+      CommandBook.logger().warning("Failed to read the whitelist, keeping the previous whitelist filter.");
+    }
+    nextFilter = null;
+  }
+}
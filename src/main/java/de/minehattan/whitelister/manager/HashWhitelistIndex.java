@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Maps;
+
+import java.util.Locale;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * A WhitelistIndex that is backed by two concurrent hash maps.
+ *
+ * <p>Lookups are lock-free, but every entry costs a UUID, a String and two
+ * map nodes. For very large whitelists, {@link PackedWhitelistIndex} needs
+ * far less memory.</p>
+ */
+public class HashWhitelistIndex implements WhitelistIndex {
+
+  private final ConcurrentMap<UUID, String> namesById = new ConcurrentHashMap<UUID, String>();
+  // keyed by the lower-case names
+  private final ConcurrentMap<String, UUID> idsByName = new ConcurrentHashMap<String, UUID>();
+
+  @Override
+  public void put(UUID uniqueId, String name) {
+    String oldName = namesById.put(uniqueId, name);
+    if (oldName != null) {
+      idsByName.remove(oldName.toLowerCase(Locale.ENGLISH), uniqueId);
+    }
+    idsByName.put(name.toLowerCase(Locale.ENGLISH), uniqueId);
+  }
+
+  @Override
+  public void remove(UUID uniqueId) {
+    String name = namesById.remove(uniqueId);
+    if (name != null) {
+      idsByName.remove(name.toLowerCase(Locale.ENGLISH), uniqueId);
+    }
+  }
+
+  @Nullable
+  @Override
+  public String getName(UUID uniqueId) {
+    return namesById.get(uniqueId);
+  }
+
+  @Override
+  public boolean contains(UUID uniqueId) {
+    return namesById.containsKey(uniqueId);
+  }
+
+  @Nullable
+  @Override
+  public UUID getUniqueId(String name) {
+    return idsByName.get(name.toLowerCase(Locale.ENGLISH));
+  }
+
+  @Override
+  public int size() {
+    return namesById.size();
+  }
+
+  @Override
+  public int forEachEntry(Predicate<Entry<UUID, String>> consumer) {
+    int count = 0;
+    for (Entry<UUID, String> entry : namesById.entrySet()) {
+      count++;
+      if (!consumer.apply(Maps.immutableEntry(entry.getKey(), entry.getValue()))) {
+        break;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,634 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sk89q.commandbook.CommandBook;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import javax.annotation.Nullable;
+
+/**
+ * Manages a whitelist stored in local files.
+ *
+ * <p>The whitelist is kept in memory. On disk it consists of a snapshot file,
+ * which is read in one go when loading, and an append-only journal that records
+ * every modification made since the snapshot was written. Each entry is
+ * stored as the 16 bytes of the UUID followed by the length-prefixed UTF-8
+ * encoded name. The journal is merged into a new snapshot once it contains
+ * too many records, periodically and when the manager is closed.</p>
+ *
+ * <p>Compaction runs in the background and only holds the lock of this
+ * manager while it copies the whitelist and moves the journal aside, so
+ * writes do not wait for the snapshot to be written. The moved journal is
+ * deleted once the new snapshot is in place; if compaction fails before,
+ * it is replayed ahead of the current journal when loading.</p>
+ */
+public class LocalFileWhitelistManager implements WhitelistManager {
+
+  private static final int SNAPSHOT_MAGIC = 0x574c5354;
+  private static final int SNAPSHOT_VERSION = 1;
+  private static final int UUID_BYTES = UUIDBinaryConverter.UUID_BYTES;
+  private static final int MAX_NAME_BYTES = 0xffff;
+
+  private final File snapshotFile;
+  private final File journalFile;
+  private final File rotatedJournalFile;
+  private final int compactThreshold;
+
+  private final ConcurrentNavigableMap<UUID, String> namesById = new ConcurrentSkipListMap<UUID, String>();
+  // keyed by the lower-case names
+  private final ConcurrentMap<String, UUID> idsByName = new ConcurrentHashMap<String, UUID>();
+  private final ScheduledExecutorService compactor;
+  private final Object compactionLock = new Object();
+  private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+  private RandomAccessFile journal;
+  private int journalRecords;
+  private long cutOffBytes;
+  private boolean closed;
+
+  /**
+   * Initializes this manager and loads the whitelist from the given files.
+   *
+   * @param snapshotFile     the snapshot file
+   * @param journalFile      the journal file
+   * @param compactThreshold the number of journal records that triggers a compaction
+   * @param compactInterval  the time in milliseconds between two periodic compactions
+   * @throws IOException if the files cannot be read
+   */
+  public LocalFileWhitelistManager(File snapshotFile, File journalFile, int compactThreshold, long compactInterval)
+      throws IOException {
+    this.snapshotFile = snapshotFile;
+    this.journalFile = journalFile;
+    this.rotatedJournalFile = new File(journalFile.getPath() + ".old");
+    this.compactThreshold = compactThreshold;
+
+    loadSnapshot();
+    // left behind by a compaction that did not finish, its records precede the ones of the journal
+    if (rotatedJournalFile.isFile()) {
+      RandomAccessFile rotated = new RandomAccessFile(rotatedJournalFile, "rw");
+      try {
+        journalRecords += replayJournal(rotated, rotatedJournalFile);
+      } finally {
+        rotated.close();
+      }
+    }
+    journal = new RandomAccessFile(journalFile, "rw");
+    journalRecords += replayJournal(journal, journalFile);
+
+    compactor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Whitelister-Compactor-%d").build());
+    compactor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        compactQuietly();
+      }
+    }, compactInterval, compactInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public synchronized AddResult add(UUID uniqueId, String name) {
+    String whitelistedName = namesById.get(uniqueId);
+    if (whitelistedName != null) {
+      return AddResult.existing(name, whitelistedName);
+    }
+    Map<UUID, String> entries = ImmutableMap.of(uniqueId, name);
+    if (!append(WhitelistChange.Type.ADD, entries)) {
+      return new AddResult(AddResult.Status.FAILED, null);
+    }
+    put(uniqueId, name);
+    return new AddResult(AddResult.Status.ADDED, name);
+  }
+
+  @Override
+  public synchronized int addAll(Map<UUID, String> entries) {
+    Map<UUID, String> missing = new LinkedHashMap<UUID, String>();
+    for (Entry<UUID, String> entry : entries.entrySet()) {
+      if (!namesById.containsKey(entry.getKey())) {
+        missing.put(entry.getKey(), entry.getValue());
+      }
+    }
+    if (missing.isEmpty() || !append(WhitelistChange.Type.ADD, missing)) {
+      return 0;
+    }
+    for (Entry<UUID, String> entry : missing.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+    return missing.size();
+  }
+
+  @Override
+  public synchronized RemoveResult remove(UUID uniqueId) {
+    if (!namesById.containsKey(uniqueId)) {
+      return RemoveResult.NOT_PRESENT;
+    }
+    Map<UUID, String> entries = ImmutableMap.of(uniqueId, "");
+    if (!append(WhitelistChange.Type.REMOVE, entries)) {
+      return RemoveResult.FAILED;
+    }
+    evict(uniqueId);
+    return RemoveResult.REMOVED;
+  }
+
+  @Override
+  public synchronized int removeAll(Collection<UUID> uniqueIds) {
+    Map<UUID, String> known = new LinkedHashMap<UUID, String>();
+    for (UUID uniqueId : uniqueIds) {
+      if (namesById.containsKey(uniqueId)) {
+        known.put(uniqueId, "");
+      }
+    }
+    if (known.isEmpty() || !append(WhitelistChange.Type.REMOVE, known)) {
+      return 0;
+    }
+    for (UUID uniqueId : known.keySet()) {
+      evict(uniqueId);
+    }
+    return known.size();
+  }
+
+  @Override
+  public boolean updateName(UUID uniqueId, String name) {
+    return updateNames(ImmutableMap.of(uniqueId, name)) > 0;
+  }
+
+  @Override
+  public synchronized int updateNames(Map<UUID, String> names) {
+    Map<UUID, String> known = new LinkedHashMap<UUID, String>();
+    for (Entry<UUID, String> entry : names.entrySet()) {
+      if (namesById.containsKey(entry.getKey())) {
+        known.put(entry.getKey(), entry.getValue());
+      }
+    }
+    if (known.isEmpty() || !append(WhitelistChange.Type.RENAME, known)) {
+      return 0;
+    }
+    for (Entry<UUID, String> entry : known.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+    return known.size();
+  }
+
+  @Nullable
+  @Override
+  public UUID getUniqueID(String name) {
+    return idsByName.get(name.toLowerCase(Locale.ENGLISH));
+  }
+
+  @Override
+  public Map<String, UUID> getUniqueIDs(Collection<String> names) {
+    Map<String, UUID> ret = new LinkedHashMap<String, UUID>();
+    for (String name : names) {
+      UUID uniqueId = idsByName.get(name.toLowerCase(Locale.ENGLISH));
+      String stored = uniqueId != null ? namesById.get(uniqueId) : null;
+      if (stored != null) {
+        ret.put(stored, uniqueId);
+      }
+    }
+    return ImmutableMap.copyOf(ret);
+  }
+
+  @Override
+  public CheckResult contains(UUID uniqueId) {
+    String name = namesById.get(uniqueId);
+    return new CheckResult(name != null, name);
+  }
+
+  @Override
+  public Map<UUID, String> getNames(Collection<UUID> uniqueIds) {
+    Map<UUID, String> ret = new LinkedHashMap<UUID, String>();
+    for (UUID uniqueId : uniqueIds) {
+      String name = namesById.get(uniqueId);
+      if (name != null) {
+        ret.put(uniqueId, name);
+      }
+    }
+    return ImmutableMap.copyOf(ret);
+  }
+
+  @Override
+  public Map<UUID, String> getWhitelist() {
+    return ImmutableMap.copyOf(namesById);
+  }
+
+  @Override
+  public Map<UUID, String> getPage(@Nullable UUID after, int limit) {
+    Map<UUID, String> page = after == null ? namesById : namesById.tailMap(after, false);
+    ImmutableMap.Builder<UUID, String> builder = ImmutableMap.builder();
+    int count = 0;
+    for (Entry<UUID, String> entry : page.entrySet()) {
+      if (count++ >= limit) {
+        break;
+      }
+      builder.put(entry.getKey(), entry.getValue());
+    }
+    return builder.build();
+  }
+
+  @Override
+  public int count() {
+    return namesById.size();
+  }
+
+  @Override
+  public int forEachEntry(Predicate<Entry<UUID, String>> consumer) {
+    int count = 0;
+    for (Entry<UUID, String> entry : namesById.entrySet()) {
+      count++;
+      if (!consumer.apply(Maps.immutableEntry(entry.getKey(), entry.getValue()))) {
+        break;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    compactor.shutdown();
+    try {
+      compactor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    compactQuietly();
+    synchronized (this) {
+      try {
+        journal.close();
+      } catch (IOException e) {
+        // ignore since we cannot do anything
+      }
+    }
+  }
+
+  /**
+   * Writes a new snapshot of the whole whitelist and truncates the journal.
+   * Modifications made while the snapshot is written are recorded in a new
+   * journal.
+   *
+   * @throws IOException if the files cannot be written
+   */
+  public void compact() throws IOException {
+    synchronized (compactionLock) {
+      Map<UUID, String> entries;
+      synchronized (this) {
+        entries = ImmutableMap.copyOf(namesById);
+        rotateJournal();
+      }
+      writeSnapshot(entries);
+      // the snapshot contains all records of the rotated journal
+      if (!rotatedJournalFile.delete()) {
+        throw new IOException("Failed to delete '" + rotatedJournalFile + "'.");
+      }
+    }
+  }
+
+  /**
+   * Gets the number of bytes of an incomplete record that have been cut off
+   * the end of the journal when loading, as left behind by an interrupted
+   * write.
+   *
+   * @return the number of bytes or {@code 0} if all records were complete
+   */
+  public long getCutOffBytes() {
+    return cutOffBytes;
+  }
+
+  /**
+   * Moves the records of the journal to the rotated journal and starts an
+   * empty journal. Callers must hold the lock of this manager.
+   *
+   * @throws IOException if the journal cannot be moved
+   */
+  private void rotateJournal() throws IOException {
+    if (rotatedJournalFile.exists()) {
+      // a previous compaction failed, so the records are appended to the ones it has rotated
+      ByteBuffer buffer = readFully(journal.getChannel(), journalFile);
+      RandomAccessFile rotated = new RandomAccessFile(rotatedJournalFile, "rw");
+      try {
+        FileChannel channel = rotated.getChannel();
+        channel.position(channel.size());
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(true);
+      } finally {
+        rotated.close();
+      }
+      journal.setLength(0);
+      journal.getChannel().force(true);
+    } else {
+      journal.close();
+      boolean renamed = journalFile.renameTo(rotatedJournalFile);
+      journal = new RandomAccessFile(journalFile, "rw");
+      if (!renamed) {
+        throw new IOException("Failed to move '" + journalFile + "' to '" + rotatedJournalFile + "'.");
+      }
+    }
+    journalRecords = 0;
+  }
+
+  /**
+   * Replaces the snapshot file with one that contains the given entries.
+   *
+   * @param entries the entries, mapping UUIDs to names
+   * @throws IOException if the file cannot be written
+   */
+  private void writeSnapshot(Map<UUID, String> entries) throws IOException {
+    int size = 12;
+    for (String name : entries.values()) {
+      size += UUID_BYTES + 2 + name.getBytes(Charsets.UTF_8).length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(entries.size());
+    for (Entry<UUID, String> entry : entries.entrySet()) {
+      putEntry(buffer, entry.getKey(), entry.getValue());
+    }
+    buffer.flip();
+
+    File tempFile = new File(snapshotFile.getPath() + ".tmp");
+    RandomAccessFile temp = new RandomAccessFile(tempFile, "rw");
+    try {
+      temp.setLength(0);
+      FileChannel channel = temp.getChannel();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    } finally {
+      temp.close();
+    }
+    // renaming replaces the old snapshot atomically on most platforms
+    if (!tempFile.renameTo(snapshotFile) && !(snapshotFile.delete() && tempFile.renameTo(snapshotFile))) {
+      throw new IOException("Failed to replace '" + snapshotFile + "' with the new snapshot.");
+    }
+  }
+
+  /**
+   * Compacts the files if the journal contains any records, logging any
+   * errors.
+   */
+  private void compactQuietly() {
+    synchronized (this) {
+      if (journalRecords == 0 && !rotatedJournalFile.exists()) {
+        return;
+      }
+    }
+    try {
+      compact();
+    } catch (IOException e) {
+      CommandBook.logger().log(Level.SEVERE, "Failed to compact the whitelist files.", e);
+    }
+  }
+
+  /**
+   * Appends one record per given entry to the journal, scheduling a
+   * compaction if the journal has grown too large. Callers must hold the
+   * lock of this manager.
+   *
+   * @param type    the type of the records
+   * @param entries the UUIDs and the names
+   * @return {@code true} if the records have been written
+   */
+  private boolean append(WhitelistChange.Type type, Map<UUID, String> entries) {
+    int size = 0;
+    for (String name : entries.values()) {
+      size += 1 + UUID_BYTES + 2 + name.getBytes(Charsets.UTF_8).length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    for (Entry<UUID, String> entry : entries.entrySet()) {
+      buffer.put((byte) type.ordinal());
+      putEntry(buffer, entry.getKey(), entry.getValue());
+    }
+    buffer.flip();
+
+    try {
+      FileChannel channel = journal.getChannel();
+      channel.position(channel.size());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+    } catch (IOException e) {
+      CommandBook.logger().log(Level.SEVERE, "Failed to write " + entries.size() + " changes to the journal.", e);
+      return false;
+    }
+
+    journalRecords += entries.size();
+    if (journalRecords >= compactThreshold && !closed && compactionScheduled.compareAndSet(false, true)) {
+      compactor.execute(new Runnable() {
+        @Override
+        public void run() {
+          compactionScheduled.set(false);
+          compactQuietly();
+        }
+      });
+    }
+    return true;
+  }
+
+  /**
+   * Loads the snapshot file, if it exists.
+   *
+   * @throws IOException if the file cannot be read or is corrupt
+   */
+  private void loadSnapshot() throws IOException {
+    if (!snapshotFile.isFile()) {
+      return;
+    }
+    RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+    try {
+      ByteBuffer buffer = readFully(file.getChannel(), snapshotFile);
+      if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+        throw new IOException("'" + snapshotFile + "' is not a whitelist snapshot of a supported version.");
+      }
+      int count = buffer.getInt();
+      byte[] scratch = new byte[MAX_NAME_BYTES];
+      for (int i = 0; i < count; i++) {
+        UUID uniqueId = UUIDBinaryConverter.fromBuffer(buffer);
+        put(uniqueId, getName(buffer, scratch));
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IOException("'" + snapshotFile + "' is truncated.");
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Applies all complete records of the given journal. An incomplete record
+   * at the end, as left behind by an interrupted write, is cut off.
+   *
+   * @param source the opened journal
+   * @param file   the file of the journal
+   * @return the number of applied records
+   * @throws IOException if the journal cannot be read
+   */
+  private int replayJournal(RandomAccessFile source, File file) throws IOException {
+    FileChannel channel = source.getChannel();
+    ByteBuffer buffer = readFully(channel, file);
+    int records = 0;
+    int complete = 0;
+    byte[] scratch = new byte[MAX_NAME_BYTES];
+    try {
+      while (buffer.hasRemaining()) {
+        int ordinal = buffer.get();
+        if (ordinal < 0 || ordinal >= WhitelistChange.Type.values().length) {
+          throw new IOException("Unknown record type " + ordinal + " in '" + file + "'.");
+        }
+        WhitelistChange.Type type = WhitelistChange.Type.values()[ordinal];
+        UUID uniqueId = UUIDBinaryConverter.fromBuffer(buffer);
+        String name = getName(buffer, scratch);
+        switch (type) {
+          case ADD:
+            put(uniqueId, name);
+            break;
+          case REMOVE:
+            evict(uniqueId);
+            break;
+          case RENAME:
+            if (namesById.containsKey(uniqueId)) {
+              put(uniqueId, name);
+            }
+            break;
+          default:
+            throw new IllegalStateException("Unhandled record type " + type);
+        }
+        complete = buffer.position();
+        records++;
+      }
+    } catch (BufferUnderflowException e) {
+      cutOffBytes += buffer.limit() - complete;
+      source.setLength(complete);
+    }
+    return records;
+  }
+
+  /**
+   * Reads the whole content of the given channel into a heap buffer. The
+   * files are not memory-mapped, since a mapping stays alive until it is
+   * garbage collected and prevents the file from being renamed, deleted or
+   * truncated on Windows.
+   *
+   * @param channel the channel
+   * @param file    the file the channel belongs to
+   * @return the buffer, ready to be read
+   * @throws IOException if the channel cannot be read or is too large
+   */
+  private static ByteBuffer readFully(FileChannel channel, File file) throws IOException {
+    long size = channel.size();
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("'" + file + "' is too large to be read.");
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) size);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, buffer.position()) < 0) {
+        throw new IOException("'" + file + "' has been truncated while reading it.");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Writes the given entry to the given buffer.
+   *
+   * @param buffer   the buffer
+   * @param uniqueId the UUID
+   * @param name     the name
+   */
+  private static void putEntry(ByteBuffer buffer, UUID uniqueId, String name) {
+    byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+    UUIDBinaryConverter.toBuffer(uniqueId, buffer);
+    buffer.putShort((short) nameBytes.length);
+    buffer.put(nameBytes);
+  }
+
+  /**
+   * Reads a length-prefixed name from the given buffer.
+   *
+   * @param buffer  the buffer
+   * @param scratch an array of {@link #MAX_NAME_BYTES} bytes that is reused for every name
+   * @return the name
+   */
+  private static String getName(ByteBuffer buffer, byte[] scratch) {
+    int length = buffer.getShort() & 0xffff;
+    buffer.get(scratch, 0, length);
+    return new String(scratch, 0, length, Charsets.UTF_8);
+  }
+
+  /**
+   * Associates the given UUID with the given name in both indexes.
+   *
+   * @param uniqueId the UUID
+   * @param name     the name
+   */
+  private void put(UUID uniqueId, String name) {
+    String oldName = namesById.put(uniqueId, name);
+    if (oldName != null) {
+      idsByName.remove(oldName.toLowerCase(Locale.ENGLISH), uniqueId);
+    }
+    idsByName.put(name.toLowerCase(Locale.ENGLISH), uniqueId);
+  }
+
+  /**
+   * Removes the given UUID from both indexes.
+   *
+   * @param uniqueId the UUID
+   */
+  private void evict(UUID uniqueId) {
+    String name = namesById.remove(uniqueId);
+    if (name != null) {
+      idsByName.remove(name.toLowerCase(Locale.ENGLISH), uniqueId);
+    }
+  }
+}
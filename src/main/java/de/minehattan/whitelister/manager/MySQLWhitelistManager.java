@@ -19,15 +19,28 @@
 
 package de.minehattan.whitelister.manager;
 
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.sk89q.commandbook.CommandBook;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
 
@@ -35,18 +48,60 @@ import javax.annotation.Nullable;
 
 /**
  * Manages a whitelist stored in MySQL.
+ *
+ * <p>The tables are created and migrated by {@link #updateSchema()}: the
+ * whitelist table has a primary key on the UUID and stores every name a
+ * second time in lower case, with an index, so names are looked up
+ * case-insensitively.</p>
+ *
+ * <p>All SQL statements are built once when the manager is created and
+ * prepared at most once per pooled connection.</p>
+ *
+ * <p>Once the change log has been enabled, every modification is additionally
+ * recorded in the table {@code <tableName>_changelog} within the same
+ * transaction, so that other servers sharing the table can follow the
+ * changes.</p>
  */
-public class MySQLWhitelistManager implements WhitelistManager {
+public class MySQLWhitelistManager implements WhitelistManager, ChangeLog {
+
+  /**
+   * The number of rows fetched per round trip when streaming results from
+   * databases other than MySQL.
+   */
+  private static final int STREAMING_FETCH_SIZE = 1000;
 
-  private final String user;
-  private final String password;
+  /**
+   * The number of names or UUIDs looked up with a single query by
+   * {@link #getUniqueIDs(Collection)} and {@link #getNames(Collection)}.
+   */
+  public static final int LOOKUP_CHUNK_SIZE = 100;
+
+  private final ConnectionPool pool;
+  private final SchemaManager schema;
   private final String tableName;
-  private final String dsn;
+  @Nullable
+  private final WhitelistErrorListener errorListener;
+  private volatile boolean changeLogEnabled;
 
-  private Connection conn;
+  private final String insertIgnoreSql;
+  private final String selectAllSql;
+  private final String selectFirstPageSql;
+  private final String selectPageSql;
+  private final String countSql;
+  private final String containsSql;
+  private final String deleteSql;
+  private final String updateNameSql;
+  private final String selectUniqueIdSql;
+  private final String selectUniqueIdsSql;
+  private final String selectNamesSql;
+
+  private final String insertChangeSql;
+  private final String selectChangesSql;
+  private final String latestSequenceSql;
+  private final String purgeChangesSql;
 
   /**
-   * Initializes this manager.
+   * Initializes this manager with a pool of at most one connection.
    *
    * @param dsn       the dsn of the database
    * @param tableName the name of the table that stores the whitelist
@@ -54,63 +109,285 @@ public class MySQLWhitelistManager implements WhitelistManager {
    * @param password  the user's password
    */
   public MySQLWhitelistManager(String dsn, String tableName, String user, String password) {
-    this.dsn = dsn;
+    this(new ConnectionPool(dsn, user, password, 0, 1, 60000, 5000, 5000), tableName);
+  }
+
+  /**
+   * Initializes this manager.
+   *
+   * @param pool      the pool that provides connections to the database
+   * @param tableName the name of the table that stores the whitelist
+   */
+  public MySQLWhitelistManager(ConnectionPool pool, String tableName) {
+    this(pool, tableName, null);
+  }
+
+  /**
+   * Initializes this manager. Database errors are logged and swallowed, so
+   * they are reported to the given listener as well.
+   *
+   * @param pool          the pool that provides connections to the database
+   * @param tableName     the name of the table that stores the whitelist
+   * @param errorListener the listener that is notified of database errors - can be {@code null}
+   */
+  public MySQLWhitelistManager(ConnectionPool pool, String tableName, @Nullable WhitelistErrorListener errorListener) {
+    this.pool = pool;
+    this.errorListener = errorListener;
+    this.schema = new SchemaManager(tableName);
     this.tableName = tableName;
-    this.user = user;
-    this.password = password;
+
+    String table = "`" + tableName + "`";
+    insertIgnoreSql =
+        "INSERT IGNORE INTO " + table + " (`minecraft-uuid`, `minecraft-name`, `minecraft-name-lower`) "
+        + "VALUES (?, ?, ?);";
+    selectAllSql = "SELECT `minecraft-uuid`, `minecraft-name` FROM " + table + ";";
+    selectFirstPageSql =
+        "SELECT `minecraft-uuid`, `minecraft-name` FROM " + table + " ORDER BY `minecraft-uuid` LIMIT ?;";
+    selectPageSql =
+        "SELECT `minecraft-uuid`, `minecraft-name` FROM " + table
+        + " WHERE `minecraft-uuid` > ? ORDER BY `minecraft-uuid` LIMIT ?;";
+    countSql = "SELECT COUNT(*) FROM " + table + ";";
+    containsSql = "SELECT `minecraft-name` FROM " + table + " WHERE `minecraft-uuid` = ? LIMIT 1;";
+    deleteSql = "DELETE FROM " + table + " WHERE `minecraft-uuid` = ?;";
+    updateNameSql =
+        "UPDATE " + table + " SET `minecraft-name` = ?, `minecraft-name-lower` = ? WHERE `minecraft-uuid` = ?;";
+    selectUniqueIdSql = "SELECT `minecraft-uuid` FROM " + table + " WHERE `minecraft-name-lower` = ? LIMIT 1;";
+    selectUniqueIdsSql =
+        "SELECT `minecraft-name`, `minecraft-uuid` FROM " + table + " WHERE `minecraft-name-lower` IN ("
+        + Joiner.on(", ").join(Collections.nCopies(LOOKUP_CHUNK_SIZE, "?")) + ");";
+    selectNamesSql =
+        "SELECT `minecraft-uuid`, `minecraft-name` FROM " + table + " WHERE `minecraft-uuid` IN ("
+        + Joiner.on(", ").join(Collections.nCopies(LOOKUP_CHUNK_SIZE, "?")) + ");";
+
+    String changeLog = "`" + tableName + "_changelog`";
+    insertChangeSql =
+        "INSERT INTO " + changeLog + " (`change-type`, `minecraft-uuid`, `minecraft-name`, `created`) "
+        + "VALUES (?, ?, ?, ?);";
+    selectChangesSql =
+        "SELECT `sequence`, `change-type`, `minecraft-uuid`, `minecraft-name` FROM " + changeLog
+        + " WHERE `sequence` > ? ORDER BY `sequence` LIMIT ?;";
+    latestSequenceSql = "SELECT MAX(`sequence`) FROM " + changeLog + ";";
+    purgeChangesSql = "DELETE FROM " + changeLog + " WHERE `created` < ?;";
   }
 
   @Override
-  public void add(UUID id, String name) {
-    Connection conn = null;
-    PreparedStatement stmnt = null;
+  public AddResult add(UUID id, String name) {
+    PooledConnection conn = null;
+    ResultSet rslt = null;
 
     try {
-      conn = getConnection();
-      stmnt =
-          conn.prepareStatement("INSERT INTO `" + tableName + "` (`minecraft-uuid`, `minecraft-name`) VALUES (?, ?);");
+      conn = pool.borrow();
+      beginChange(conn);
+      PreparedStatement stmnt = conn.prepare(insertIgnoreSql);
       stmnt.setBytes(1, UUIDBinaryConverter.toBytes(id));
       stmnt.setString(2, name);
-      stmnt.execute();
+      stmnt.setString(3, lowerCase(name));
+      if (stmnt.executeUpdate() > 0) {
+        recordChange(conn, WhitelistChange.Type.ADD, id, name);
+        commitChange(conn);
+        return new AddResult(AddResult.Status.ADDED, name);
+      }
+      commitChange(conn);
+
+      // the insert was ignored, which is rare enough to justify a second round trip
+      stmnt = conn.prepare(containsSql);
+      stmnt.setBytes(1, UUIDBinaryConverter.toBytes(id));
+      rslt = stmnt.executeQuery();
+      if (rslt.next()) {
+        return AddResult.existing(name, rslt.getString(1));
+      }
+      CommandBook.logger().severe("Failed to add '" + id + "' to the whitelist: the insert was ignored.");
     } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("add", e);
+      rollbackChange(conn);
       CommandBook.logger().log(Level.SEVERE, "Failed to add '" + id + "' to the whitelist.", e);
     } finally {
-      closeQuitly(conn, stmnt);
+      closeQuitly(rslt);
+      release(conn);
     }
+    return new AddResult(AddResult.Status.FAILED, null);
+  }
+
+  @Override
+  public int addAll(Map<UUID, String> entries) {
+    PooledConnection conn = null;
+    boolean autoCommit = true;
+
+    try {
+      conn = pool.borrow();
+      autoCommit = conn.getConnection().getAutoCommit();
+      conn.getConnection().setAutoCommit(false);
+
+      Map<UUID, String> missing = new LinkedHashMap<UUID, String>(entries);
+      missing.keySet().removeAll(selectNames(conn, entries.keySet()).keySet());
+      if (missing.isEmpty()) {
+        conn.getConnection().commit();
+        return 0;
+      }
+
+      PreparedStatement stmnt = conn.prepare(insertIgnoreSql);
+      for (Entry<UUID, String> entry : missing.entrySet()) {
+        stmnt.setBytes(1, UUIDBinaryConverter.toBytes(entry.getKey()));
+        stmnt.setString(2, entry.getValue());
+        stmnt.setString(3, lowerCase(entry.getValue()));
+        stmnt.addBatch();
+      }
+      int[] counts = stmnt.executeBatch();
+      // rewritten batches report SUCCESS_NO_INFO for every entry, including the ones INSERT IGNORE skipped because
+      // another server added them in the meantime, so the stored names are compared with the inserted ones
+      Map<UUID, String> stored = hasNoInfo(counts) ? selectNames(conn, missing.keySet()) : null;
+      int added = 0;
+      int index = 0;
+      for (Entry<UUID, String> entry : missing.entrySet()) {
+        if (counts[index] > 0
+            || (counts[index] == Statement.SUCCESS_NO_INFO && entry.getValue().equals(stored.get(entry.getKey())))) {
+          added++;
+          addChangeToBatch(conn, WhitelistChange.Type.ADD, entry.getKey(), entry.getValue());
+        }
+        index++;
+      }
+      executeChangeBatch(conn);
+      conn.getConnection().commit();
+      return added;
+    } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("addAll", e);
+      rollbackQuitly(conn);
+      CommandBook.logger().log(Level.SEVERE, "Failed to add " + entries.size() + " entries to the whitelist.", e);
+    } finally {
+      restoreAutoCommit(conn, autoCommit);
+      release(conn);
+    }
+    return 0;
   }
 
   @Override
   public Map<UUID, String> getWhitelist() {
-    Connection conn = null;
-    PreparedStatement stmnt = null;
+    PooledConnection conn = null;
+    ResultSet results = null;
 
     ImmutableMap.Builder<UUID, String> builder = new ImmutableMap.Builder<UUID, String>();
 
     try {
-      conn = getConnection();
-      stmnt = conn.prepareStatement("SELECT `minecraft-uuid`, `minecraft-name` FROM `" + tableName + "`;");
-      ResultSet results = stmnt.executeQuery();
+      conn = pool.borrow();
+      results = conn.prepare(selectAllSql).executeQuery();
       while (results.next()) {
         builder.put(UUIDBinaryConverter.fromBytes(results.getBytes(1)), results.getString(2));
       }
     } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("getWhitelist", e);
       CommandBook.logger().log(Level.SEVERE, "Failed to get values from the whitelist.", e);
     } finally {
-      closeQuitly(conn, stmnt);
+      closeQuitly(results);
+      release(conn);
     }
     return builder.build();
   }
 
   @Override
-  public CheckResult contains(UUID id) {
-    Connection conn = null;
+  public Map<UUID, String> getPage(@Nullable UUID after, int limit) {
+    PooledConnection conn = null;
+    ResultSet results = null;
+
+    ImmutableMap.Builder<UUID, String> builder = new ImmutableMap.Builder<UUID, String>();
+
+    try {
+      conn = pool.borrow();
+      PreparedStatement stmnt;
+      if (after == null) {
+        stmnt = conn.prepare(selectFirstPageSql);
+        stmnt.setInt(1, limit);
+      } else {
+        stmnt = conn.prepare(selectPageSql);
+        stmnt.setBytes(1, UUIDBinaryConverter.toBytes(after));
+        stmnt.setInt(2, limit);
+      }
+      results = stmnt.executeQuery();
+      while (results.next()) {
+        builder.put(UUIDBinaryConverter.fromBytes(results.getBytes(1)), results.getString(2));
+      }
+    } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("getPage", e);
+      CommandBook.logger().log(Level.SEVERE, "Failed to get a page of values from the whitelist.", e);
+    } finally {
+      closeQuitly(results);
+      release(conn);
+    }
+    return builder.build();
+  }
+
+  @Override
+  public int count() {
+    PooledConnection conn = null;
+    ResultSet results = null;
+
+    try {
+      conn = pool.borrow();
+      results = conn.prepare(countSql).executeQuery();
+      if (results.next()) {
+        return results.getInt(1);
+      }
+    } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("count", e);
+      CommandBook.logger().log(Level.SEVERE, "Failed to count the entries on the whitelist.", e);
+    } finally {
+      closeQuitly(results);
+      release(conn);
+    }
+    return 0;
+  }
+
+  @Override
+  public int forEachEntry(Predicate<Entry<UUID, String>> consumer) {
+    PooledConnection conn = null;
     PreparedStatement stmnt = null;
-    ResultSet rslt = null;
+    ResultSet results = null;
+
+    int count = 0;
 
     try {
-      conn = getConnection();
+      conn = pool.borrow();
+      // a dedicated statement, since streaming changes its fetch size
       stmnt =
-          conn.prepareStatement("SELECT `minecraft-name` FROM `" + tableName + "` WHERE `minecraft-uuid` = ? LIMIT 1;");
+          conn.getConnection()
+              .prepareStatement(selectAllSql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      // Connector/J only streams rows one by one if the fetch size is Integer.MIN_VALUE
+      boolean mysql = "MySQL".equals(conn.getConnection().getMetaData().getDatabaseProductName());
+      stmnt.setFetchSize(mysql ? Integer.MIN_VALUE : STREAMING_FETCH_SIZE);
+      results = stmnt.executeQuery();
+      while (results.next()) {
+        count++;
+        Entry<UUID, String> entry =
+            Maps.immutableEntry(UUIDBinaryConverter.fromBytes(results.getBytes(1)), results.getString(2));
+        if (!consumer.apply(entry)) {
+          break;
+        }
+      }
+    } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("forEachEntry", e);
+      CommandBook.logger().log(Level.SEVERE, "Failed to stream values from the whitelist.", e);
+      count = -1;
+    } finally {
+      closeQuitly(results);
+      closeQuitly(stmnt);
+      release(conn);
+    }
+    return count;
+  }
+
+  @Override
+  public CheckResult contains(UUID id) {
+    PooledConnection conn = null;
+    ResultSet rslt = null;
+
+    try {
+      conn = pool.borrow();
+      PreparedStatement stmnt = conn.prepare(containsSql);
       stmnt.setBytes(1, UUIDBinaryConverter.toBytes(id));
       rslt = stmnt.executeQuery();
       if (rslt.next()) {
@@ -121,102 +398,676 @@ public class MySQLWhitelistManager implements WhitelistManager {
       }
       return new CheckResult(false, null);
     } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("contains", e);
       CommandBook.logger().log(Level.SEVERE, "Failed to check if ' " + id + "' is on the whitelist.", e);
     } finally {
-      if (rslt != null) {
-        try {
-          rslt.close();
-        } catch (SQLException e) {
-          // ignore since we cannot do anything
-        }
-      }
-      closeQuitly(conn, stmnt);
+      closeQuitly(rslt);
+      release(conn);
     }
     return new CheckResult(false, null);
   }
 
   @Override
-  public void remove(UUID id) {
-    Connection conn = null;
-    PreparedStatement stmnt = null;
+  public RemoveResult remove(UUID id) {
+    PooledConnection conn = null;
 
     try {
-      conn = getConnection();
-      stmnt = conn.prepareStatement("DELETE WHERE `minecraft-uuid` = ?;");
+      conn = pool.borrow();
+      beginChange(conn);
+      PreparedStatement stmnt = conn.prepare(deleteSql);
       stmnt.setBytes(1, UUIDBinaryConverter.toBytes(id));
-      stmnt.execute();
+      boolean removed = stmnt.executeUpdate() > 0;
+      if (removed) {
+        recordChange(conn, WhitelistChange.Type.REMOVE, id, null);
+      }
+      commitChange(conn);
+      return removed ? RemoveResult.REMOVED : RemoveResult.NOT_PRESENT;
     } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("remove", e);
+      rollbackChange(conn);
       CommandBook.logger().log(Level.SEVERE, "Failed to remove ' " + id + "' from the whitelist.", e);
     } finally {
-      closeQuitly(conn, stmnt);
+      release(conn);
     }
+    return RemoveResult.FAILED;
   }
 
   @Override
-  public void updateName(UUID id, String name) {
-    Connection conn = null;
-    PreparedStatement stmnt = null;
+  public int removeAll(Collection<UUID> ids) {
+    PooledConnection conn = null;
+    boolean autoCommit = true;
 
     try {
-      conn = getConnection();
-      stmnt = conn.prepareStatement("UPDATE SET `minecraft-name`= ? WHERE `minecraft-uuid` = ?;");
+      conn = pool.borrow();
+      autoCommit = conn.getConnection().getAutoCommit();
+      conn.getConnection().setAutoCommit(false);
+
+      Set<UUID> present = selectNames(conn, ids).keySet();
+      if (present.isEmpty()) {
+        conn.getConnection().commit();
+        return 0;
+      }
+
+      PreparedStatement stmnt = conn.prepare(deleteSql);
+      for (UUID id : present) {
+        stmnt.setBytes(1, UUIDBinaryConverter.toBytes(id));
+        stmnt.addBatch();
+      }
+      int[] counts = stmnt.executeBatch();
+      // rewritten batches report SUCCESS_NO_INFO for every entry, including the ones another server removed in the
+      // meantime, so only the entries that are not visible anymore have been removed by us
+      Map<UUID, String> remaining = hasNoInfo(counts) ? selectNames(conn, present) : null;
+      int removed = 0;
+      int index = 0;
+      for (UUID id : present) {
+        if (counts[index] > 0 || (counts[index] == Statement.SUCCESS_NO_INFO && !remaining.containsKey(id))) {
+          removed++;
+          addChangeToBatch(conn, WhitelistChange.Type.REMOVE, id, null);
+        }
+        index++;
+      }
+      executeChangeBatch(conn);
+      conn.getConnection().commit();
+      return removed;
+    } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("removeAll", e);
+      rollbackQuitly(conn);
+      CommandBook.logger().log(Level.SEVERE, "Failed to remove " + ids.size() + " entries from the whitelist.", e);
+    } finally {
+      restoreAutoCommit(conn, autoCommit);
+      release(conn);
+    }
+    return 0;
+  }
+
+  @Override
+  public boolean updateName(UUID id, String name) {
+    PooledConnection conn = null;
+
+    try {
+      conn = pool.borrow();
+      beginChange(conn);
+      PreparedStatement stmnt = conn.prepare(updateNameSql);
       stmnt.setString(1, name);
-      stmnt.setBytes(2, UUIDBinaryConverter.toBytes(id));
-      stmnt.execute();
+      stmnt.setString(2, lowerCase(name));
+      stmnt.setBytes(3, UUIDBinaryConverter.toBytes(id));
+      boolean updated = stmnt.executeUpdate() > 0;
+      if (updated) {
+        recordChange(conn, WhitelistChange.Type.RENAME, id, name);
+      }
+      commitChange(conn);
+      return updated;
     } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("updateName", e);
+      rollbackChange(conn);
       CommandBook.logger().log(Level.SEVERE, "Failed to update name for ' " + id + "'.", e);
     } finally {
-      closeQuitly(conn, stmnt);
+      release(conn);
     }
+    return false;
+  }
+
+  @Override
+  public int updateNames(Map<UUID, String> names) {
+    if (names.isEmpty()) {
+      return 0;
+    }
+    PooledConnection conn = null;
+    boolean autoCommit = true;
+
+    try {
+      conn = pool.borrow();
+      autoCommit = conn.getConnection().getAutoCommit();
+      conn.getConnection().setAutoCommit(false);
+
+      PreparedStatement stmnt = conn.prepare(updateNameSql);
+      for (Entry<UUID, String> entry : names.entrySet()) {
+        stmnt.setString(1, entry.getValue());
+        stmnt.setString(2, lowerCase(entry.getValue()));
+        stmnt.setBytes(3, UUIDBinaryConverter.toBytes(entry.getKey()));
+        stmnt.addBatch();
+      }
+      int[] counts = stmnt.executeBatch();
+      // rewritten batches report SUCCESS_NO_INFO for every entry, including the ones that are not on the whitelist
+      Map<UUID, String> stored = hasNoInfo(counts) ? selectNames(conn, names.keySet()) : null;
+      int index = 0;
+      int updated = 0;
+      for (Entry<UUID, String> entry : names.entrySet()) {
+        if (counts[index] > 0
+            || (counts[index] == Statement.SUCCESS_NO_INFO && entry.getValue().equals(stored.get(entry.getKey())))) {
+          addChangeToBatch(conn, WhitelistChange.Type.RENAME, entry.getKey(), entry.getValue());
+          updated++;
+        }
+        index++;
+      }
+      executeChangeBatch(conn);
+      conn.getConnection().commit();
+      return updated;
+    } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("updateNames", e);
+      rollbackQuitly(conn);
+      CommandBook.logger().log(Level.SEVERE, "Failed to update " + names.size() + " names.", e);
+    } finally {
+      restoreAutoCommit(conn, autoCommit);
+      release(conn);
+    }
+    return 0;
   }
 
   @Override
   public UUID getUniqueID(String name) {
-    Connection conn = null;
-    PreparedStatement stmnt = null;
+    PooledConnection conn = null;
+    ResultSet results = null;
 
     UUID ret = null;
 
     try {
-      conn = getConnection();
-      stmnt =
-          conn.prepareStatement("SELECT `minecraft-uuid` FROM `" + tableName + "` WHERE `minecraft-name`= ? LIMIT 1;");
-      stmnt.setString(1, name);
-      ResultSet results = stmnt.executeQuery();
+      conn = pool.borrow();
+      PreparedStatement stmnt = conn.prepare(selectUniqueIdSql);
+      stmnt.setString(1, lowerCase(name));
+      results = stmnt.executeQuery();
       while (results.next()) {
         ret = UUIDBinaryConverter.fromBytes(results.getBytes(1));
       }
     } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("getUniqueID", e);
       CommandBook.logger().log(Level.SEVERE, "Failed to get UUID for '" + name + "'.", e);
     } finally {
-      closeQuitly(conn, stmnt);
+      closeQuitly(results);
+      release(conn);
+    }
+    return ret;
+  }
+
+  @Override
+  public Map<String, UUID> getUniqueIDs(Collection<String> names) {
+    if (names.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    PooledConnection conn = null;
+    ResultSet results = null;
+
+    Map<String, UUID> ret = new LinkedHashMap<String, UUID>();
+
+    try {
+      conn = pool.borrow();
+      PreparedStatement stmnt = conn.prepare(selectUniqueIdsSql);
+      for (List<String> chunk : Iterables.partition(names, LOOKUP_CHUNK_SIZE)) {
+        // the last chunk is padded with its last name, so all chunks share one statement
+        for (int i = 0; i < LOOKUP_CHUNK_SIZE; i++) {
+          stmnt.setString(i + 1, lowerCase(chunk.get(Math.min(i, chunk.size() - 1))));
+        }
+        results = stmnt.executeQuery();
+        while (results.next()) {
+          ret.put(results.getString(1), UUIDBinaryConverter.fromBytes(results.getBytes(2)));
+        }
+        results.close();
+      }
+    } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("getUniqueIDs", e);
+      CommandBook.logger().log(Level.SEVERE, "Failed to get UUIDs for " + names.size() + " names.", e);
+    } finally {
+      closeQuitly(results);
+      release(conn);
+    }
+    return ImmutableMap.copyOf(ret);
+  }
+
+  @Override
+  public Map<UUID, String> getNames(Collection<UUID> ids) {
+    if (ids.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    PooledConnection conn = null;
+
+    try {
+      conn = pool.borrow();
+      return ImmutableMap.copyOf(selectNames(conn, ids));
+    } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("getNames", e);
+      CommandBook.logger().log(Level.SEVERE, "Failed to get the names of " + ids.size() + " UUIDs.", e);
+    } finally {
+      release(conn);
+    }
+    return ImmutableMap.of();
+  }
+
+  /**
+   * Creates the whitelist table and migrates it to the current schema
+   * version, if necessary.
+   *
+   * @throws IncompatibleSchemaException if the existing tables cannot be migrated
+   * @throws IllegalStateException       if the schema cannot be updated
+   */
+  public void updateSchema() throws IllegalStateException {
+    PooledConnection conn = null;
+
+    try {
+      conn = pool.borrow();
+      schema.update(conn.getConnection());
+    } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("updateSchema", e);
+      throw new IllegalStateException("Failed to update the schema of the whitelist table '" + tableName + "'.", e);
+    } finally {
+      release(conn);
+    }
+  }
+
+  /**
+   * Borrows as many connections as are idle in the pool, prepares the
+   * statements that are used on logins on each of them and checks that the
+   * whitelist table can be read.
+   *
+   * @return {@code true} if the whitelist table could be read on every connection
+   */
+  public boolean warmUp() {
+    List<PooledConnection> borrowed = new ArrayList<PooledConnection>();
+    PooledConnection conn = null;
+    ResultSet rslt = null;
+
+    try {
+      int connections = Math.max(1, pool.getIdleConnections());
+      for (int i = 0; i < connections; i++) {
+        // borrowed connections are kept, so every iteration gets another one
+        conn = pool.borrow();
+        borrowed.add(conn);
+        conn.prepare(updateNameSql);
+        conn.prepare(selectUniqueIdSql);
+        PreparedStatement stmnt = conn.prepare(containsSql);
+        stmnt.setBytes(1, UUIDBinaryConverter.toBytes(new UUID(0, 0)));
+        rslt = stmnt.executeQuery();
+        closeQuitly(rslt);
+        rslt = null;
+      }
+      return true;
+    } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("warmUp", e);
+      CommandBook.logger().log(Level.SEVERE, "Failed to read the whitelist table.", e);
+    } finally {
+      closeQuitly(rslt);
+      for (PooledConnection connection : borrowed) {
+        release(connection);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Creates the change log table if it does not exist yet and starts to
+   * record all modifications in it.
+   *
+   * @return {@code true} if the change log has been enabled
+   */
+  public boolean enableChangeLog() {
+    PooledConnection conn = null;
+
+    try {
+      conn = pool.borrow();
+      schema.createChangeLog(conn.getConnection());
+      changeLogEnabled = true;
+      return true;
+    } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("enableChangeLog", e);
+      CommandBook.logger().log(Level.SEVERE, "Failed to create the change log table.", e);
+    } finally {
+      release(conn);
+    }
+    return false;
+  }
+
+  @Override
+  public long getLatestSequence() {
+    PooledConnection conn = null;
+    ResultSet results = null;
+
+    try {
+      conn = pool.borrow();
+      results = conn.prepare(latestSequenceSql).executeQuery();
+      if (results.next()) {
+        return results.getLong(1);
+      }
+    } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("getLatestSequence", e);
+      CommandBook.logger().log(Level.SEVERE, "Failed to get the latest sequence number of the change log.", e);
+    } finally {
+      closeQuitly(results);
+      release(conn);
+    }
+    return 0;
+  }
+
+  @Override
+  public List<WhitelistChange> getChangesSince(long sequence, int limit) {
+    PooledConnection conn = null;
+    ResultSet results = null;
+
+    ImmutableList.Builder<WhitelistChange> builder = ImmutableList.builder();
+
+    try {
+      conn = pool.borrow();
+      PreparedStatement stmnt = conn.prepare(selectChangesSql);
+      stmnt.setLong(1, sequence);
+      stmnt.setInt(2, limit);
+      results = stmnt.executeQuery();
+      while (results.next()) {
+        int ordinal = results.getInt(2);
+        if (ordinal < 0 || ordinal >= WhitelistChange.Type.values().length) {
+          // written by a newer version, the poller skips it like a rolled back change
+          CommandBook.logger().warning("Unknown change type " + ordinal + " in the change log (sequence "
+                                       + results.getLong(1) + ").");
+          continue;
+        }
+        builder.add(new WhitelistChange(results.getLong(1), WhitelistChange.Type.values()[ordinal],
+                                        UUIDBinaryConverter.fromBytes(results.getBytes(3)), results.getString(4)));
+      }
+    } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("getChangesSince", e);
+      CommandBook.logger().log(Level.SEVERE, "Failed to read the change log.", e);
+    } finally {
+      closeQuitly(results);
+      release(conn);
+    }
+    return builder.build();
+  }
+
+  @Override
+  public void purgeChanges(long time) {
+    PooledConnection conn = null;
+
+    try {
+      conn = pool.borrow();
+      PreparedStatement stmnt = conn.prepare(purgeChangesSql);
+      stmnt.setLong(1, time);
+      stmnt.execute();
+    } catch (SQLException e) {
+      invalidate(conn, e);
+      recordError("purgeChanges", e);
+      CommandBook.logger().log(Level.SEVERE, "Failed to purge the change log.", e);
+    } finally {
+      release(conn);
+    }
+  }
+
+  @Override
+  public void close() {
+    pool.close();
+  }
+
+  /**
+   * Gets the number of statements that were reused from the statement cache.
+   *
+   * @return the number of statement cache hits
+   */
+  public long getStatementCacheHits() {
+    return pool.getStatementCacheHits();
+  }
+
+  /**
+   * Gets the number of statements that had to be prepared because they were
+   * not cached yet.
+   *
+   * @return the number of statement cache misses
+   */
+  public long getStatementCacheMisses() {
+    return pool.getStatementCacheMisses();
+  }
+
+  /**
+   * Gets the names of the given UUIDs that are on the whitelist, using the
+   * given connection.
+   *
+   * @param conn the PooledConnection
+   * @param ids  the UUIDs
+   * @return the UUIDs that are on the whitelist mapped to their names
+   * @throws SQLException if a database access error occurs
+   */
+  private Map<UUID, String> selectNames(PooledConnection conn, Collection<UUID> ids) throws SQLException {
+    Map<UUID, String> ret = new LinkedHashMap<UUID, String>();
+    PreparedStatement stmnt = conn.prepare(selectNamesSql);
+    for (List<UUID> chunk : Iterables.partition(ids, LOOKUP_CHUNK_SIZE)) {
+      // the last chunk is padded with its last UUID, so all chunks share one statement
+      for (int i = 0; i < LOOKUP_CHUNK_SIZE; i++) {
+        stmnt.setBytes(i + 1, UUIDBinaryConverter.toBytes(chunk.get(Math.min(i, chunk.size() - 1))));
+      }
+      ResultSet results = stmnt.executeQuery();
+      try {
+        while (results.next()) {
+          ret.put(UUIDBinaryConverter.fromBytes(results.getBytes(1)), results.getString(2));
+        }
+      } finally {
+        results.close();
+      }
     }
     return ret;
   }
 
   /**
-   * Gets a connection to the database.
+   * Checks whether the given update counts of a batch contain
+   * {@link Statement#SUCCESS_NO_INFO}, as reported by drivers that rewrite
+   * batches into a single statement.
+   *
+   * @param counts the update counts
+   * @return {@code true} if at least one count is unknown
+   */
+  private static boolean hasNoInfo(int[] counts) {
+    for (int count : counts) {
+      if (count == Statement.SUCCESS_NO_INFO) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Starts a transaction on the given connection if modifications are
+   * recorded in the change log.
+   *
+   * @param conn the PooledConnection
+   * @throws SQLException if a database access error occurs
+   */
+  private void beginChange(PooledConnection conn) throws SQLException {
+    if (changeLogEnabled) {
+      conn.getConnection().setAutoCommit(false);
+    }
+  }
+
+  /**
+   * Records a change in the change log, if enabled.
+   *
+   * @param conn     the PooledConnection
+   * @param type     the type of the change
+   * @param uniqueId the affected UUID
+   * @param name     the associated name - can be {@code null}
+   * @throws SQLException if a database access error occurs
+   */
+  private void recordChange(PooledConnection conn, WhitelistChange.Type type, UUID uniqueId, @Nullable String name)
+      throws SQLException {
+    if (changeLogEnabled) {
+      prepareChange(conn, type, uniqueId, name).execute();
+    }
+  }
+
+  /**
+   * Adds a change to the batch of changes of the given connection, if the
+   * change log is enabled.
+   *
+   * @param conn     the PooledConnection
+   * @param type     the type of the change
+   * @param uniqueId the affected UUID
+   * @param name     the associated name - can be {@code null}
+   * @throws SQLException if a database access error occurs
+   */
+  private void addChangeToBatch(PooledConnection conn, WhitelistChange.Type type, UUID uniqueId,
+                                @Nullable String name) throws SQLException {
+    if (changeLogEnabled) {
+      prepareChange(conn, type, uniqueId, name).addBatch();
+    }
+  }
+
+  /**
+   * Executes the batch of changes of the given connection, if the change log
+   * is enabled.
    *
-   * @return a connection to the database
+   * @param conn the PooledConnection
    * @throws SQLException if a database access error occurs
    */
-  private Connection getConnection() throws SQLException {
-    if (conn != null && !conn.isValid(5)) {
-      conn.close();
+  private void executeChangeBatch(PooledConnection conn) throws SQLException {
+    if (changeLogEnabled) {
+      conn.prepare(insertChangeSql).executeBatch();
     }
-    if (conn == null || conn.isClosed()) {
-      conn = DriverManager.getConnection(dsn, user, password);
+  }
+
+  /**
+   * Prepares the statement that records the given change.
+   *
+   * @param conn     the PooledConnection
+   * @param type     the type of the change
+   * @param uniqueId the affected UUID
+   * @param name     the associated name - can be {@code null}
+   * @return the statement with all parameters set
+   * @throws SQLException if a database access error occurs
+   */
+  private PreparedStatement prepareChange(PooledConnection conn, WhitelistChange.Type type, UUID uniqueId,
+                                          @Nullable String name) throws SQLException {
+    PreparedStatement stmnt = conn.prepare(insertChangeSql);
+    stmnt.setInt(1, type.ordinal());
+    stmnt.setBytes(2, UUIDBinaryConverter.toBytes(uniqueId));
+    if (name != null) {
+      stmnt.setString(3, name);
+    } else {
+      stmnt.setNull(3, Types.VARCHAR);
     }
-    return conn;
+    stmnt.setLong(4, System.currentTimeMillis());
+    return stmnt;
   }
 
   /**
-   * Closes the given resources quietly, ignoring any exceptions.
+   * Commits the transaction started by {@link #beginChange(PooledConnection)}.
    *
-   * @param conn  a Connection - can be {@code null}
-   * @param stmnt a PreparedStatement - can be {@code null}
+   * @param conn the PooledConnection
+   * @throws SQLException if a database access error occurs
    */
-  private void closeQuitly(@Nullable Connection conn, @Nullable PreparedStatement stmnt) {
+  private void commitChange(PooledConnection conn) throws SQLException {
+    if (changeLogEnabled) {
+      conn.getConnection().commit();
+      conn.getConnection().setAutoCommit(true);
+    }
+  }
+
+  /**
+   * Rolls back the transaction started by
+   * {@link #beginChange(PooledConnection)} quietly.
+   *
+   * @param conn a PooledConnection - can be {@code null}
+   */
+  private void rollbackChange(@Nullable PooledConnection conn) {
+    if (changeLogEnabled) {
+      rollbackQuitly(conn);
+      restoreAutoCommit(conn, true);
+    }
+  }
+
+  /**
+   * Gets the form of the given name that is stored in the lower-case name
+   * column.
+   *
+   * @param name the name
+   * @return the name in lower case
+   */
+  private static String lowerCase(String name) {
+    return name.toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * Reports a failed call of the given operation, if this manager has been
+   * initialized with a WhitelistErrorListener.
+   *
+   * @param operation the name of the operation
+   * @param cause     the error
+   */
+  private void recordError(String operation, Exception cause) {
+    if (errorListener != null) {
+      errorListener.failed(operation, cause);
+    }
+  }
+
+  /**
+   * Marks the given connection as broken if the given error indicates a
+   * connection problem, so that it is not reused.
+   *
+   * @param conn a PooledConnection - can be {@code null}
+   * @param e    the error
+   */
+  private void invalidate(@Nullable PooledConnection conn, SQLException e) {
+    // SQL states of class 08 are connection exceptions
+    if (conn != null && (e.getSQLState() == null || e.getSQLState().startsWith("08"))) {
+      conn.markBroken();
+    }
+  }
+
+  /**
+   * Rolls back the current transaction of the given connection quietly,
+   * ignoring any exceptions.
+   *
+   * @param conn a PooledConnection - can be {@code null}
+   */
+  private void rollbackQuitly(@Nullable PooledConnection conn) {
+    if (conn != null) {
+      try {
+        conn.getConnection().rollback();
+      } catch (SQLException e) {
+        // ignore since we cannot do anything
+      }
+    }
+  }
+
+  /**
+   * Restores the given auto-commit mode of the given connection, marking the
+   * connection as broken if this fails.
+   *
+   * @param conn       a PooledConnection - can be {@code null}
+   * @param autoCommit the auto-commit mode
+   */
+  private void restoreAutoCommit(@Nullable PooledConnection conn, boolean autoCommit) {
+    if (conn != null) {
+      try {
+        conn.getConnection().setAutoCommit(autoCommit);
+      } catch (SQLException e) {
+        conn.markBroken();
+      }
+    }
+  }
+
+  /**
+   * Gives the given connection back to the pool.
+   *
+   * @param conn a PooledConnection - can be {@code null}
+   */
+  private void release(@Nullable PooledConnection conn) {
+    if (conn != null) {
+      pool.release(conn);
+    }
+  }
+
+  /**
+   * Closes the given Statement quietly, ignoring any exceptions.
+   *
+   * @param stmnt a Statement - can be {@code null}
+   */
+  private void closeQuitly(@Nullable Statement stmnt) {
     if (stmnt != null) {
       try {
         stmnt.close();
@@ -224,9 +1075,17 @@ public class MySQLWhitelistManager implements WhitelistManager {
         // ignore since we cannot do anything
       }
     }
-    if (conn != null) {
+  }
+
+  /**
+   * Closes the given ResultSet quietly, ignoring any exceptions.
+   *
+   * @param results a ResultSet - can be {@code null}
+   */
+  private void closeQuitly(@Nullable ResultSet results) {
+    if (results != null) {
       try {
-        conn.close();
+        results.close();
       } catch (SQLException e) {
         // ignore since we cannot do anything
       }
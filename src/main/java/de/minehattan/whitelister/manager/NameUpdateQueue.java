@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sk89q.commandbook.CommandBook;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Collects name updates and writes them to a WhitelistManager in the
+ * background.
+ *
+ * <p>Updates are keyed by UUID, so a later update for the same UUID replaces
+ * a pending one. Pending updates are written in batches by a background
+ * thread. If the queue is full, new updates are written by the calling
+ * thread.</p>
+ */
+public class NameUpdateQueue {
+
+  private final WhitelistManager manager;
+  private final int capacity;
+  private final ConcurrentMap<UUID, String> pending = new ConcurrentHashMap<UUID, String>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final ScheduledExecutorService worker;
+
+  /**
+   * Initializes this queue and starts the background thread.
+   *
+   * @param manager       the WhitelistManager the updates are written to
+   * @param capacity      the maximum number of pending updates
+   * @param flushInterval the time in milliseconds between two flushes
+   */
+  public NameUpdateQueue(WhitelistManager manager, int capacity, long flushInterval) {
+    this.manager = manager;
+    this.capacity = capacity;
+
+    worker =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Whitelister-NameUpdates-%d").build());
+    worker.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queues an update of the name that is associated with the given UUID.
+   *
+   * @param uniqueId the UUID
+   * @param name     the name
+   */
+  public void enqueue(UUID uniqueId, String name) {
+    if (size.get() >= capacity && !pending.containsKey(uniqueId)) {
+      manager.updateName(uniqueId, name);
+      return;
+    }
+    if (pending.put(uniqueId, name) == null) {
+      size.incrementAndGet();
+    }
+  }
+
+  /**
+   * Writes all pending updates to the WhitelistManager.
+   */
+  public synchronized void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    Map<UUID, String> batch = new LinkedHashMap<UUID, String>();
+    for (Entry<UUID, String> entry : pending.entrySet()) {
+      // only remove the exact update, a newer one stays queued
+      if (pending.remove(entry.getKey(), entry.getValue())) {
+        size.decrementAndGet();
+        batch.put(entry.getKey(), entry.getValue());
+      }
+    }
+    try {
+      manager.updateNames(batch);
+    } catch (RuntimeException e) {
+      CommandBook.logger().log(Level.SEVERE, "Failed to write " + batch.size() + " name updates.", e);
+    }
+  }
+
+  /**
+   * Stops the background thread and writes all pending updates. Updates
+   * queued afterwards are not written.
+   */
+  public void close() {
+    worker.shutdown();
+    try {
+      worker.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+  }
+
+  /**
+   * Gets the number of pending updates.
+   *
+   * @return the number of pending updates
+   */
+  public int getPending() {
+    return size.get();
+  }
+}
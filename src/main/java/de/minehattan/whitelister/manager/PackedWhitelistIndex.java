@@ -0,0 +1,585 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+
+/**
+ * A WhitelistIndex that stores its entries in primitive arrays, for very
+ * large whitelists.
+ *
+ * <p>UUIDs are kept as their two {@code long} halves in an open addressing
+ * hash table with linear probing. Names are stored as length-prefixed UTF-8
+ * in a single byte array (the arena) and referenced by their offset. A second
+ * open addressing table maps the hashes of the names to slots of the first.
+ * Names are hashed and compared ignoring the case of ASCII letters, which
+ * covers all valid Minecraft names, so no lower-case copy is needed.
+ * An entry thus costs between 45 and 70 bytes, depending on how full the
+ * tables are, instead of the roughly 150 bytes of objects and map nodes in a
+ * {@link HashWhitelistIndex}, and creates no garbage once it has been
+ * inserted.</p>
+ *
+ * <p>Removed slots are marked as such and reclaimed when the tables are
+ * rebuilt. Names that are no longer referenced are reclaimed once they make
+ * up half of the arena. Lookups share a read lock, modifications hold the
+ * write lock.</p>
+ */
+public class PackedWhitelistIndex implements WhitelistIndex {
+
+  private static final int EMPTY = -1;
+  private static final int REMOVED = -2;
+  private static final float MAX_LOAD = 0.7f;
+  private static final int MIN_CAPACITY = 16;
+  private static final int MIN_ARENA_SIZE = 1024;
+  private static final int MAX_NAME_BYTES = 0xffff;
+
+  private final Lock readLock;
+  private final Lock writeLock;
+
+  private long[] mostSignificantBits;
+  private long[] leastSignificantBits;
+  // the offsets of the names in the arena, EMPTY or REMOVED
+  private int[] nameOffsets;
+  // the slots of the UUIDs, indexed by the hashes of their names, EMPTY or REMOVED
+  private int[] slotsByName;
+  private int mask;
+  private int threshold;
+  private int size;
+  private int removed;
+  private int names;
+  private int removedNames;
+
+  private byte[] arena;
+  private int arenaSize;
+  private int garbage;
+
+  /**
+   * Initializes an empty index.
+   */
+  public PackedWhitelistIndex() {
+    this(0);
+  }
+
+  /**
+   * Initializes an empty index that can hold the given number of entries
+   * without growing.
+   *
+   * @param expectedSize the expected number of entries
+   */
+  public PackedWhitelistIndex(int expectedSize) {
+    ReadWriteLock lock = new ReentrantReadWriteLock();
+    readLock = lock.readLock();
+    writeLock = lock.writeLock();
+
+    allocate(capacityFor(expectedSize));
+    arena = new byte[Math.max(MIN_ARENA_SIZE, expectedSize * 16)];
+  }
+
+  @Override
+  public void put(UUID uniqueId, String name) {
+    byte[] encoded = encode(name);
+    writeLock.lock();
+    try {
+      // both tables need at least one empty slot, so probing always terminates
+      if (size + removed >= threshold || names + removedNames >= threshold) {
+        rebuild(capacityFor(size + size / 2 + 1));
+      }
+
+      long most = uniqueId.getMostSignificantBits();
+      long least = uniqueId.getLeastSignificantBits();
+      int slot = findSlot(most, least);
+      if (slot >= 0) {
+        if (nameEquals(nameOffsets[slot], encoded)) {
+          // the name might refer to another UUID by now
+          linkName(slot, encoded);
+          return;
+        }
+        unlinkName(slot);
+        discardName(nameOffsets[slot]);
+        // keeps the old name from being copied, should the arena be compacted
+        nameOffsets[slot] = REMOVED;
+        nameOffsets[slot] = append(encoded);
+        linkName(slot, encoded);
+        return;
+      }
+
+      slot = mix(most, least) & mask;
+      while (nameOffsets[slot] >= 0) {
+        slot = (slot + 1) & mask;
+      }
+      if (nameOffsets[slot] == REMOVED) {
+        removed--;
+      }
+      mostSignificantBits[slot] = most;
+      leastSignificantBits[slot] = least;
+      nameOffsets[slot] = append(encoded);
+      size++;
+      linkName(slot, encoded);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public void remove(UUID uniqueId) {
+    writeLock.lock();
+    try {
+      int slot = findSlot(uniqueId.getMostSignificantBits(), uniqueId.getLeastSignificantBits());
+      if (slot < 0) {
+        return;
+      }
+      unlinkName(slot);
+      discardName(nameOffsets[slot]);
+      nameOffsets[slot] = REMOVED;
+      size--;
+      removed++;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Nullable
+  @Override
+  public String getName(UUID uniqueId) {
+    readLock.lock();
+    try {
+      int slot = findSlot(uniqueId.getMostSignificantBits(), uniqueId.getLeastSignificantBits());
+      return slot >= 0 ? decode(nameOffsets[slot]) : null;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean contains(UUID uniqueId) {
+    readLock.lock();
+    try {
+      return findSlot(uniqueId.getMostSignificantBits(), uniqueId.getLeastSignificantBits()) >= 0;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Nullable
+  @Override
+  public UUID getUniqueId(String name) {
+    byte[] encoded = encode(name);
+    readLock.lock();
+    try {
+      int index = hash(encoded, 0, encoded.length) & mask;
+      int slot;
+      while ((slot = slotsByName[index]) != EMPTY) {
+        if (slot >= 0 && nameEqualsIgnoreCase(nameOffsets[slot], encoded)) {
+          return new UUID(mostSignificantBits[slot], leastSignificantBits[slot]);
+        }
+        index = (index + 1) & mask;
+      }
+      return null;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    readLock.lock();
+    try {
+      return size;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The read lock is held while the entries are passed to the consumer,
+   * so modifications wait until it has finished.</p>
+   */
+  @Override
+  public int forEachEntry(Predicate<Entry<UUID, String>> consumer) {
+    readLock.lock();
+    try {
+      int count = 0;
+      for (int slot = 0; slot < nameOffsets.length; slot++) {
+        if (nameOffsets[slot] < 0) {
+          continue;
+        }
+        count++;
+        UUID uniqueId = new UUID(mostSignificantBits[slot], leastSignificantBits[slot]);
+        if (!consumer.apply(Maps.immutableEntry(uniqueId, decode(nameOffsets[slot])))) {
+          break;
+        }
+      }
+      return count;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Gets the approximate number of bytes used by the tables and the arena of
+   * this index.
+   *
+   * @return the number of bytes
+   */
+  public long getSizeInBytes() {
+    readLock.lock();
+    try {
+      return 24L * nameOffsets.length + arena.length;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Finds the slot of the given UUID. Callers must hold a lock.
+   *
+   * @param most  the most significant bits of the UUID
+   * @param least the least significant bits of the UUID
+   * @return the slot or {@code -1} if the UUID is not indexed
+   */
+  private int findSlot(long most, long least) {
+    int slot = mix(most, least) & mask;
+    int offset;
+    while ((offset = nameOffsets[slot]) != EMPTY) {
+      if (offset >= 0 && mostSignificantBits[slot] == most && leastSignificantBits[slot] == least) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Lets the given name refer to the given slot. Callers must hold the write
+   * lock.
+   *
+   * @param slot    the slot
+   * @param encoded the encoded name
+   */
+  private void linkName(int slot, byte[] encoded) {
+    int index = hash(encoded, 0, encoded.length) & mask;
+    int free = -1;
+    int current;
+    while ((current = slotsByName[index]) != EMPTY) {
+      if (current == REMOVED) {
+        if (free < 0) {
+          free = index;
+        }
+      } else if (nameEqualsIgnoreCase(nameOffsets[current], encoded)) {
+        slotsByName[index] = slot;
+        return;
+      }
+      index = (index + 1) & mask;
+    }
+    if (free >= 0) {
+      index = free;
+      removedNames--;
+    }
+    slotsByName[index] = slot;
+    names++;
+  }
+
+  /**
+   * Removes the name of the given slot from the name table, if it still
+   * refers to this slot. Callers must hold the write lock.
+   *
+   * @param slot the slot
+   */
+  private void unlinkName(int slot) {
+    int offset = nameOffsets[slot];
+    int index = hash(arena, offset + 2, nameLength(offset)) & mask;
+    int current;
+    while ((current = slotsByName[index]) != EMPTY) {
+      if (current == slot) {
+        slotsByName[index] = REMOVED;
+        names--;
+        removedNames++;
+        return;
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  /**
+   * Rebuilds both tables with the given capacity, dropping all removed
+   * slots. Callers must hold the write lock.
+   *
+   * @param capacity the new capacity, a power of two
+   */
+  private void rebuild(int capacity) {
+    long[] oldMost = mostSignificantBits;
+    long[] oldLeast = leastSignificantBits;
+    int[] oldOffsets = nameOffsets;
+    int[] oldSlotsByName = slotsByName;
+    allocate(capacity);
+
+    int[] moved = new int[oldOffsets.length];
+    for (int oldSlot = 0; oldSlot < oldOffsets.length; oldSlot++) {
+      if (oldOffsets[oldSlot] < 0) {
+        continue;
+      }
+      int slot = mix(oldMost[oldSlot], oldLeast[oldSlot]) & mask;
+      while (nameOffsets[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      mostSignificantBits[slot] = oldMost[oldSlot];
+      leastSignificantBits[slot] = oldLeast[oldSlot];
+      nameOffsets[slot] = oldOffsets[oldSlot];
+      moved[oldSlot] = slot;
+    }
+    // names are carried over rather than relinked, so a name keeps referring to the same UUID
+    for (int oldSlot : oldSlotsByName) {
+      if (oldSlot < 0) {
+        continue;
+      }
+      int slot = moved[oldSlot];
+      int offset = nameOffsets[slot];
+      int index = hash(arena, offset + 2, nameLength(offset)) & mask;
+      while (slotsByName[index] != EMPTY) {
+        index = (index + 1) & mask;
+      }
+      slotsByName[index] = slot;
+      names++;
+    }
+  }
+
+  /**
+   * Allocates empty tables of the given capacity.
+   *
+   * @param capacity the capacity, a power of two
+   */
+  private void allocate(int capacity) {
+    mostSignificantBits = new long[capacity];
+    leastSignificantBits = new long[capacity];
+    nameOffsets = new int[capacity];
+    slotsByName = new int[capacity];
+    Arrays.fill(nameOffsets, EMPTY);
+    Arrays.fill(slotsByName, EMPTY);
+    mask = capacity - 1;
+    threshold = (int) (capacity * MAX_LOAD);
+    removed = 0;
+    names = 0;
+    removedNames = 0;
+  }
+
+  /**
+   * Appends the given name to the arena. Callers must hold the write lock.
+   *
+   * @param encoded the encoded name
+   * @return the offset of the name
+   */
+  private int append(byte[] encoded) {
+    int required = arenaSize + 2 + encoded.length;
+    if (required > arena.length) {
+      if (garbage > arenaSize / 2) {
+        compactArena();
+        required = arenaSize + 2 + encoded.length;
+      }
+      if (required > arena.length) {
+        if (required < 0) {
+          throw new IllegalStateException("The name arena is full.");
+        }
+        arena = Arrays.copyOf(arena, Math.max(required, arena.length + (arena.length >> 1)));
+      }
+    }
+    int offset = arenaSize;
+    arena[offset] = (byte) (encoded.length >>> 8);
+    arena[offset + 1] = (byte) encoded.length;
+    System.arraycopy(encoded, 0, arena, offset + 2, encoded.length);
+    arenaSize = required;
+    return offset;
+  }
+
+  /**
+   * Marks the name at the given offset as garbage. Callers must hold the
+   * write lock.
+   *
+   * @param offset the offset of the name
+   */
+  private void discardName(int offset) {
+    garbage += 2 + nameLength(offset);
+  }
+
+  /**
+   * Copies all names that are still referenced into a new arena. Callers
+   * must hold the write lock.
+   */
+  private void compactArena() {
+    byte[] compacted = new byte[Math.max(MIN_ARENA_SIZE, arenaSize - garbage + (arenaSize - garbage) / 2)];
+    int compactedSize = 0;
+    for (int slot = 0; slot < nameOffsets.length; slot++) {
+      int offset = nameOffsets[slot];
+      if (offset < 0) {
+        continue;
+      }
+      int length = 2 + nameLength(offset);
+      System.arraycopy(arena, offset, compacted, compactedSize, length);
+      nameOffsets[slot] = compactedSize;
+      compactedSize += length;
+    }
+    arena = compacted;
+    arenaSize = compactedSize;
+    garbage = 0;
+  }
+
+  /**
+   * Gets the number of bytes of the name at the given offset.
+   *
+   * @param offset the offset of the name
+   * @return the number of bytes
+   */
+  private int nameLength(int offset) {
+    return ((arena[offset] & 0xff) << 8) | (arena[offset + 1] & 0xff);
+  }
+
+  /**
+   * Returns whether the name at the given offset equals the given name.
+   *
+   * @param offset  the offset of the name
+   * @param encoded the encoded name
+   * @return {@code true} if both names are equal
+   */
+  private boolean nameEquals(int offset, byte[] encoded) {
+    if (nameLength(offset) != encoded.length) {
+      return false;
+    }
+    for (int i = 0; i < encoded.length; i++) {
+      if (arena[offset + 2 + i] != encoded[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether the name at the given offset equals the given name,
+   * ignoring the case of ASCII letters.
+   *
+   * @param offset  the offset of the name
+   * @param encoded the encoded name
+   * @return {@code true} if both names are equal
+   */
+  private boolean nameEqualsIgnoreCase(int offset, byte[] encoded) {
+    if (nameLength(offset) != encoded.length) {
+      return false;
+    }
+    for (int i = 0; i < encoded.length; i++) {
+      if (lowerCase(arena[offset + 2 + i]) != lowerCase(encoded[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decodes the name at the given offset.
+   *
+   * @param offset the offset of the name
+   * @return the name
+   */
+  private String decode(int offset) {
+    return new String(arena, offset + 2, nameLength(offset), Charsets.UTF_8);
+  }
+
+  /**
+   * Encodes the given name.
+   *
+   * @param name the name
+   * @return the name in UTF-8
+   * @throws IllegalArgumentException if the encoded name is longer than 65535 bytes
+   */
+  private static byte[] encode(String name) {
+    byte[] encoded = name.getBytes(Charsets.UTF_8);
+    if (encoded.length > MAX_NAME_BYTES) {
+      throw new IllegalArgumentException("The name '" + name + "' is too long.");
+    }
+    return encoded;
+  }
+
+  /**
+   * Gets the smallest capacity that holds the given number of entries.
+   *
+   * @param entries the number of entries
+   * @return the capacity, a power of two
+   */
+  private static int capacityFor(int entries) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * MAX_LOAD <= entries) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  /**
+   * Hashes a UUID given by its halves.
+   *
+   * @param most  the most significant bits
+   * @param least the least significant bits
+   * @return the hash
+   */
+  private static int mix(long most, long least) {
+    long hash = most * 0x9E3779B97F4A7C15L + least;
+    hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+    hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+    return (int) (hash ^ (hash >>> 31));
+  }
+
+  /**
+   * Converts the given byte to lower case, if it is an upper-case ASCII
+   * letter.
+   *
+   * @param value the byte
+   * @return the byte in lower case
+   */
+  private static int lowerCase(byte value) {
+    return value >= 'A' && value <= 'Z' ? value + ('a' - 'A') : value;
+  }
+
+  /**
+   * Hashes the given bytes, ignoring the case of ASCII letters.
+   *
+   * @param bytes  the array that contains the bytes
+   * @param offset the offset of the first byte
+   * @param length the number of bytes
+   * @return the hash
+   */
+  private static int hash(byte[] bytes, int offset, int length) {
+    int hash = 0x811C9DC5;
+    for (int i = offset; i < offset + length; i++) {
+      hash = (hash ^ lowerCase(bytes[i])) * 0x01000193;
+    }
+    hash ^= hash >>> 16;
+    hash *= 0x85EBCA6B;
+    return hash ^ (hash >>> 13);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A connection that is managed by a {@link ConnectionPool}.
+ *
+ * <p>Each connection caches the statements prepared through
+ * {@link #prepare(String)}. As a connection is only used by one thread at a
+ * time, the cache needs no synchronization.</p>
+ */
+public class PooledConnection {
+
+  private final Connection connection;
+  private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+  private final AtomicLong cacheHits;
+  private final AtomicLong cacheMisses;
+  private volatile long lastUsed;
+  private volatile long lastValidated;
+  private volatile boolean broken;
+
+  /**
+   * Initializes this connection.
+   *
+   * @param connection  the physical connection, which must be valid
+   * @param cacheHits   the counter for statement cache hits
+   * @param cacheMisses the counter for statement cache misses
+   */
+  PooledConnection(Connection connection, AtomicLong cacheHits, AtomicLong cacheMisses) {
+    this.connection = connection;
+    this.cacheHits = cacheHits;
+    this.cacheMisses = cacheMisses;
+    long now = System.currentTimeMillis();
+    this.lastUsed = now;
+    this.lastValidated = now;
+  }
+
+  /**
+   * Gets the physical connection. It must not be closed by the caller.
+   *
+   * @return the connection
+   */
+  public Connection getConnection() {
+    return connection;
+  }
+
+  /**
+   * Gets a prepared statement for the given SQL, reusing the statement of an
+   * earlier call if possible. The statement must not be closed by the caller;
+   * it is closed together with the connection.
+   *
+   * @param sql the SQL
+   * @return the prepared statement
+   * @throws SQLException if a database access error occurs
+   */
+  public PreparedStatement prepare(String sql) throws SQLException {
+    PreparedStatement stmnt = statements.get(sql);
+    if (stmnt != null) {
+      cacheHits.incrementAndGet();
+      return stmnt;
+    }
+    cacheMisses.incrementAndGet();
+    stmnt = connection.prepareStatement(sql);
+    statements.put(sql, stmnt);
+    return stmnt;
+  }
+
+  /**
+   * Marks this connection as broken, so that the pool closes it instead of
+   * reusing it once it is released.
+   */
+  public void markBroken() {
+    broken = true;
+  }
+
+  /**
+   * Returns whether this connection has been marked as broken.
+   *
+   * @return {@code true} if this connection is broken
+   */
+  boolean isBroken() {
+    return broken;
+  }
+
+  /**
+   * Gets the time this connection was last given back to the pool.
+   *
+   * @return the time in milliseconds
+   */
+  long getLastUsed() {
+    return lastUsed;
+  }
+
+  /**
+   * Gets the time this connection was last known to be valid.
+   *
+   * @return the time in milliseconds
+   */
+  long getLastValidated() {
+    return lastValidated;
+  }
+
+  /**
+   * Records that this connection has just been given back to the pool.
+   */
+  void touch() {
+    lastUsed = System.currentTimeMillis();
+  }
+
+  /**
+   * Records that this connection has been validated at the given time.
+   *
+   * @param time the time in milliseconds
+   */
+  void validated(long time) {
+    lastValidated = time;
+  }
+}
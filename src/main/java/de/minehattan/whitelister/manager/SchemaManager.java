@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Creates and migrates the tables used by the {@link MySQLWhitelistManager}.
+ *
+ * <p>The version of the schema is kept in the table
+ * {@code <tableName>_schema}, which holds one row per applied migration.
+ * Migrations are applied in order on startup. A whitelist table that was
+ * created before its schema was managed is adopted by the first migration, if
+ * its layout is compatible.</p>
+ *
+ * <p>Several servers may share the database and start at the same time. If a
+ * migration fails because another server has applied it already, this is
+ * ignored.</p>
+ *
+ * <p>Servers that still run a build from before schema version 2 neither
+ * set nor update the lower-case name. Such entries are repaired on every
+ * startup, so until all servers have been upgraded they can be found by
+ * name only after the next restart.</p>
+ */
+class SchemaManager {
+
+  /**
+   * The schema version that is created by this version of Whitelister.
+   */
+  static final int VERSION = 2;
+
+  static final String UUID_COLUMN = "minecraft-uuid";
+  static final String NAME_COLUMN = "minecraft-name";
+  static final String LOWER_NAME_COLUMN = "minecraft-name-lower";
+
+  private final String tableName;
+
+  private final String createSchemaTableSql;
+  private final String selectVersionSql;
+  private final String insertVersionSql;
+  private final String createTableSql;
+  private final String addPrimaryKeySql;
+  private final String createNameIndexSql;
+  private final String addLowerNameSql;
+  private final String fillLowerNameSql;
+  private final String createLowerNameIndexSql;
+  private final String createChangeLogSql;
+
+  /**
+   * Initializes this manager.
+   *
+   * @param tableName the name of the table that stores the whitelist
+   */
+  SchemaManager(String tableName) {
+    this.tableName = tableName;
+
+    String table = "`" + tableName + "`";
+    String schema = "`" + tableName + "_schema`";
+    createSchemaTableSql =
+        "CREATE TABLE IF NOT EXISTS " + schema + " (`version` INT NOT NULL PRIMARY KEY, `applied` BIGINT NOT NULL);";
+    selectVersionSql = "SELECT MAX(`version`) FROM " + schema + ";";
+    insertVersionSql = "INSERT INTO " + schema + " (`version`, `applied`) VALUES (";
+    createTableSql =
+        "CREATE TABLE IF NOT EXISTS " + table + " (`" + UUID_COLUMN + "` BINARY(16) NOT NULL, `" + NAME_COLUMN
+        + "` VARCHAR(16) NOT NULL, PRIMARY KEY (`" + UUID_COLUMN + "`));";
+    addPrimaryKeySql = "ALTER TABLE " + table + " ADD PRIMARY KEY (`" + UUID_COLUMN + "`);";
+    createNameIndexSql = "CREATE INDEX `" + tableName + "_name` ON " + table + " (`" + NAME_COLUMN + "`);";
+    addLowerNameSql = "ALTER TABLE " + table + " ADD COLUMN `" + LOWER_NAME_COLUMN + "` VARCHAR(16) NULL;";
+    fillLowerNameSql =
+        "UPDATE " + table + " SET `" + LOWER_NAME_COLUMN + "` = LOWER(`" + NAME_COLUMN + "`) WHERE `" + NAME_COLUMN
+        + "` IS NOT NULL AND (`" + LOWER_NAME_COLUMN + "` IS NULL OR `" + LOWER_NAME_COLUMN + "` <> LOWER(`"
+        + NAME_COLUMN + "`));";
+    createLowerNameIndexSql =
+        "CREATE INDEX `" + tableName + "_name_lower` ON " + table + " (`" + LOWER_NAME_COLUMN + "`);";
+
+    createChangeLogSql =
+        "CREATE TABLE IF NOT EXISTS `" + tableName + "_changelog` (`sequence` BIGINT NOT NULL AUTO_INCREMENT "
+        + "PRIMARY KEY, `change-type` TINYINT NOT NULL, `minecraft-uuid` BINARY(16) NOT NULL, "
+        + "`minecraft-name` VARCHAR(16) NULL, `created` BIGINT NOT NULL);";
+  }
+
+  /**
+   * Applies all migrations that have not been applied yet and fills the
+   * lower-case names that are missing or outdated.
+   *
+   * @param conn the Connection
+   * @throws SQLException                if a database access error occurs
+   * @throws IncompatibleSchemaException if the existing tables cannot be migrated
+   */
+  void update(Connection conn) throws SQLException, IncompatibleSchemaException {
+    Statement stmnt = conn.createStatement();
+    try {
+      stmnt.execute(createSchemaTableSql);
+      int version = getVersion(stmnt);
+      if (version > VERSION) {
+        throw new IncompatibleSchemaException(
+            "The whitelist table '" + tableName + "' has the schema version " + version + ", but this version of "
+            + "Whitelister supports only versions up to " + VERSION + ".");
+      }
+
+      while (version < VERSION) {
+        int next = version + 1;
+        try {
+          migrate(conn, stmnt, next);
+          stmnt.executeUpdate(insertVersionSql + next + ", " + System.currentTimeMillis() + ");");
+        } catch (SQLException e) {
+          // another server sharing the database may have applied the migration meanwhile
+          if (getVersion(stmnt) < next) {
+            throw e;
+          }
+        }
+        version = getVersion(stmnt);
+      }
+      // entries written by servers that have not been upgraded yet
+      stmnt.executeUpdate(fillLowerNameSql);
+    } finally {
+      stmnt.close();
+    }
+  }
+
+  /**
+   * Creates the change log table if it does not exist yet.
+   *
+   * @param conn the Connection
+   * @throws SQLException if a database access error occurs
+   */
+  void createChangeLog(Connection conn) throws SQLException {
+    Statement stmnt = conn.createStatement();
+    try {
+      stmnt.execute(createChangeLogSql);
+    } finally {
+      stmnt.close();
+    }
+  }
+
+  /**
+   * Gets the version of the applied schema.
+   *
+   * @param stmnt the Statement used to query the version
+   * @return the version or {@code 0} if no migration has been applied yet
+   * @throws SQLException if a database access error occurs
+   */
+  private int getVersion(Statement stmnt) throws SQLException {
+    ResultSet results = stmnt.executeQuery(selectVersionSql);
+    try {
+      return results.next() ? results.getInt(1) : 0;
+    } finally {
+      results.close();
+    }
+  }
+
+  /**
+   * Applies the migration to the given version.
+   *
+   * @param conn    the Connection
+   * @param stmnt   the Statement used to execute the migration
+   * @param version the version
+   * @throws SQLException                if a database access error occurs
+   * @throws IncompatibleSchemaException if the existing tables cannot be migrated
+   */
+  private void migrate(Connection conn, Statement stmnt, int version)
+      throws SQLException, IncompatibleSchemaException {
+    switch (version) {
+      case 1:
+        createTable(conn, stmnt);
+        break;
+      case 2:
+        addLowerName(conn, stmnt);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown schema version " + version + ".");
+    }
+  }
+
+  /**
+   * Creates the whitelist table with a primary key on the UUID and an index
+   * on the name. If the table exists already, its layout is checked and the
+   * missing keys are added.
+   *
+   * @param conn  the Connection
+   * @param stmnt the Statement used to alter the table
+   * @throws SQLException                if a database access error occurs
+   * @throws IncompatibleSchemaException if the existing table cannot be adopted
+   */
+  private void createTable(Connection conn, Statement stmnt) throws SQLException, IncompatibleSchemaException {
+    DatabaseMetaData meta = conn.getMetaData();
+    String catalog = conn.getCatalog();
+
+    String existing = findTable(meta, catalog);
+    if (existing == null) {
+      stmnt.execute(createTableSql);
+      existing = findTable(meta, catalog);
+    } else {
+      checkColumns(meta, catalog, existing);
+      Set<String> primaryKey = getPrimaryKey(meta, catalog, existing);
+      if (primaryKey.isEmpty()) {
+        stmnt.execute(addPrimaryKeySql);
+      } else if (primaryKey.size() != 1 || !primaryKey.contains(UUID_COLUMN)) {
+        throw new IncompatibleSchemaException(
+            "The whitelist table '" + tableName + "' has a primary key on " + primaryKey + " instead of '"
+            + UUID_COLUMN + "'.");
+      }
+    }
+
+    if (existing == null || !hasIndex(meta, catalog, existing, NAME_COLUMN)) {
+      stmnt.execute(createNameIndexSql);
+    }
+  }
+
+  /**
+   * Adds a column with the lower-case name and an index on it, so names can
+   * be looked up case-insensitively with an index on any collation. The
+   * column is filled by {@link #update(Connection)} afterwards. Each step is
+   * skipped if it has been completed before.
+   *
+   * @param conn  the Connection
+   * @param stmnt the Statement used to alter the table
+   * @throws SQLException if a database access error occurs
+   */
+  private void addLowerName(Connection conn, Statement stmnt) throws SQLException {
+    DatabaseMetaData meta = conn.getMetaData();
+    String catalog = conn.getCatalog();
+    String table = findTable(meta, catalog);
+
+    if (table == null || !hasColumn(meta, catalog, table, LOWER_NAME_COLUMN)) {
+      stmnt.execute(addLowerNameSql);
+    }
+    if (table == null || !hasIndex(meta, catalog, table, LOWER_NAME_COLUMN)) {
+      stmnt.execute(createLowerNameIndexSql);
+    }
+  }
+
+  /**
+   * Gets the name of the whitelist table as it is stored by the database,
+   * which might differ in case.
+   *
+   * @param meta    the DatabaseMetaData
+   * @param catalog the current catalog
+   * @return the stored name or {@code null} if the table does not exist
+   * @throws SQLException if a database access error occurs
+   */
+  @Nullable
+  private String findTable(DatabaseMetaData meta, String catalog) throws SQLException {
+    ResultSet results = meta.getTables(catalog, null, null, new String[]{"TABLE"});
+    try {
+      while (results.next()) {
+        String name = results.getString("TABLE_NAME");
+        if (tableName.equalsIgnoreCase(name)) {
+          return name;
+        }
+      }
+      return null;
+    } finally {
+      results.close();
+    }
+  }
+
+  /**
+   * Checks that the given table stores UUIDs as 16 bytes and names as
+   * characters.
+   *
+   * @param meta    the DatabaseMetaData
+   * @param catalog the current catalog
+   * @param table   the stored name of the table
+   * @throws SQLException                if a database access error occurs
+   * @throws IncompatibleSchemaException if a column is missing or has an incompatible type
+   */
+  private void checkColumns(DatabaseMetaData meta, String catalog, String table)
+      throws SQLException, IncompatibleSchemaException {
+    boolean uniqueIdFound = false;
+    boolean nameFound = false;
+
+    ResultSet results = meta.getColumns(catalog, null, table, null);
+    try {
+      while (results.next()) {
+        String column = results.getString("COLUMN_NAME");
+        int type = results.getInt("DATA_TYPE");
+        int size = results.getInt("COLUMN_SIZE");
+        if (UUID_COLUMN.equalsIgnoreCase(column)) {
+          uniqueIdFound = true;
+          if ((type != Types.BINARY && type != Types.VARBINARY) || size != UUIDBinaryConverter.UUID_BYTES) {
+            throw new IncompatibleSchemaException(
+                "The column '" + UUID_COLUMN + "' of the whitelist table '" + tableName + "' has the type "
+                + results.getString("TYPE_NAME") + "(" + size + ") instead of BINARY(16).");
+          }
+        } else if (NAME_COLUMN.equalsIgnoreCase(column)) {
+          nameFound = true;
+          if (type != Types.CHAR && type != Types.VARCHAR && type != Types.NCHAR && type != Types.NVARCHAR) {
+            throw new IncompatibleSchemaException(
+                "The column '" + NAME_COLUMN + "' of the whitelist table '" + tableName + "' has the type "
+                + results.getString("TYPE_NAME") + " instead of VARCHAR.");
+          }
+        }
+      }
+    } finally {
+      results.close();
+    }
+
+    if (!uniqueIdFound || !nameFound) {
+      throw new IncompatibleSchemaException(
+          "The whitelist table '" + tableName + "' has no column '" + (uniqueIdFound ? NAME_COLUMN : UUID_COLUMN)
+          + "'.");
+    }
+  }
+
+  /**
+   * Returns whether the given table has the given column.
+   *
+   * @param meta    the DatabaseMetaData
+   * @param catalog the current catalog
+   * @param table   the stored name of the table
+   * @param column  the name of the column
+   * @return {@code true} if the column exists
+   * @throws SQLException if a database access error occurs
+   */
+  private boolean hasColumn(DatabaseMetaData meta, String catalog, String table, String column) throws SQLException {
+    ResultSet results = meta.getColumns(catalog, null, table, null);
+    try {
+      while (results.next()) {
+        if (column.equalsIgnoreCase(results.getString("COLUMN_NAME"))) {
+          return true;
+        }
+      }
+      return false;
+    } finally {
+      results.close();
+    }
+  }
+
+  /**
+   * Gets the lower-case names of the columns of the primary key of the given
+   * table.
+   *
+   * @param meta    the DatabaseMetaData
+   * @param catalog the current catalog
+   * @param table   the stored name of the table
+   * @return the names or an empty set if the table has no primary key
+   * @throws SQLException if a database access error occurs
+   */
+  private Set<String> getPrimaryKey(DatabaseMetaData meta, String catalog, String table) throws SQLException {
+    Set<String> columns = new HashSet<String>();
+    ResultSet results = meta.getPrimaryKeys(catalog, null, table);
+    try {
+      while (results.next()) {
+        columns.add(results.getString("COLUMN_NAME").toLowerCase(Locale.ENGLISH));
+      }
+    } finally {
+      results.close();
+    }
+    return columns;
+  }
+
+  /**
+   * Returns whether the given table has an index that starts with the given
+   * column.
+   *
+   * @param meta    the DatabaseMetaData
+   * @param catalog the current catalog
+   * @param table   the stored name of the table
+   * @param column  the name of the column
+   * @return {@code true} if such an index exists
+   * @throws SQLException if a database access error occurs
+   */
+  private boolean hasIndex(DatabaseMetaData meta, String catalog, String table, String column) throws SQLException {
+    ResultSet results = meta.getIndexInfo(catalog, null, table, false, true);
+    try {
+      while (results.next()) {
+        if (results.getShort("ORDINAL_POSITION") == 1 && column.equalsIgnoreCase(results.getString("COLUMN_NAME"))) {
+          return true;
+        }
+      }
+      return false;
+    } finally {
+      results.close();
+    }
+  }
+}
@@ -26,9 +26,20 @@ import java.util.UUID;
 
 /**
  * Converts byte arrays to {@link UUID}s and back.
+ *
+ * <p>An UUID is stored as its 16 bytes in big-endian order, the most
+ * significant bits first. Besides the methods that create a new array, there
+ * are variants that read from and write to a caller-supplied array or buffer
+ * at a given position, so callers that convert many UUIDs do not need to
+ * allocate anything per UUID.</p>
  */
 public final class UUIDBinaryConverter {
 
+  /**
+   * The number of bytes of a binary UUID.
+   */
+  public static final int UUID_BYTES = 16;
+
   /**
    * Block initialization of this class.
    */
@@ -43,12 +54,52 @@ public final class UUIDBinaryConverter {
    * @throws NullPointerException if {@code bytes} is {@code null}
    */
   public static UUID fromBytes(byte[] bytes) throws NullPointerException {
+    return fromBytes(bytes, 0);
+  }
+
+  /**
+   * Creates an UUID from the 16 bytes of the given array that start at the
+   * given offset.
+   *
+   * @param bytes  the bytes array
+   * @param offset the index of the first byte
+   * @return the corresponding UUID
+   * @throws NullPointerException      if {@code bytes} is {@code null}
+   * @throws IndexOutOfBoundsException if the array has less than 16 bytes after {@code offset}
+   */
+  public static UUID fromBytes(byte[] bytes, int offset) throws NullPointerException, IndexOutOfBoundsException {
     checkNotNull(bytes);
+    if (offset < 0 || bytes.length - offset < UUID_BYTES) {
+      throw new IndexOutOfBoundsException("Need " + UUID_BYTES + " bytes at offset " + offset + ", array has "
+                                          + bytes.length + ".");
+    }
+    return new UUID(getLong(bytes, offset), getLong(bytes, offset + 8));
+  }
+
+  /**
+   * Reads an UUID from the given buffer at its current position and advances
+   * the position by 16 bytes.
+   *
+   * @param buffer the buffer, which must use big-endian byte order
+   * @return the corresponding UUID
+   * @throws java.nio.BufferUnderflowException if the buffer has less than 16 bytes remaining
+   */
+  public static UUID fromBuffer(ByteBuffer buffer) {
+    long mostSignificant = buffer.getLong();
+    return new UUID(mostSignificant, buffer.getLong());
+  }
 
-    ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
-    long mostSignificant = byteBuffer.getLong();
-    long leastSignificant = byteBuffer.getLong();
-    return new UUID(mostSignificant, leastSignificant);
+  /**
+   * Reads an UUID from the given buffer at the given index without changing
+   * the position of the buffer.
+   *
+   * @param buffer the buffer, which must use big-endian byte order
+   * @param index  the index of the first byte
+   * @return the corresponding UUID
+   * @throws IndexOutOfBoundsException if the buffer has less than 16 bytes after {@code index}
+   */
+  public static UUID fromBuffer(ByteBuffer buffer, int index) throws IndexOutOfBoundsException {
+    return new UUID(buffer.getLong(index), buffer.getLong(index + 8));
   }
 
   /**
@@ -59,11 +110,98 @@ public final class UUIDBinaryConverter {
    * @throws NullPointerException if {@code uuid} is {@code null}
    */
   public static byte[] toBytes(UUID uuid) throws NullPointerException {
+    byte[] bytes = new byte[UUID_BYTES];
+    toBytes(uuid, bytes, 0);
+    return bytes;
+  }
+
+  /**
+   * Writes the 16 bytes of the given UUID into the given array, starting at
+   * the given offset.
+   *
+   * @param uuid   the UUID
+   * @param bytes  the array to write to
+   * @param offset the index of the first byte
+   * @throws NullPointerException      if {@code uuid} or {@code bytes} is {@code null}
+   * @throws IndexOutOfBoundsException if the array has less than 16 bytes after {@code offset}
+   */
+  public static void toBytes(UUID uuid, byte[] bytes, int offset)
+      throws NullPointerException, IndexOutOfBoundsException {
+    checkNotNull(uuid);
+    checkNotNull(bytes);
+    if (offset < 0 || bytes.length - offset < UUID_BYTES) {
+      throw new IndexOutOfBoundsException("Need " + UUID_BYTES + " bytes at offset " + offset + ", array has "
+                                          + bytes.length + ".");
+    }
+    putLong(bytes, offset, uuid.getMostSignificantBits());
+    putLong(bytes, offset + 8, uuid.getLeastSignificantBits());
+  }
+
+  /**
+   * Writes the given UUID to the given buffer at its current position and
+   * advances the position by 16 bytes.
+   *
+   * @param uuid   the UUID
+   * @param buffer the buffer, which must use big-endian byte order
+   * @throws NullPointerException             if {@code uuid} is {@code null}
+   * @throws java.nio.BufferOverflowException if the buffer has less than 16 bytes remaining
+   */
+  public static void toBuffer(UUID uuid, ByteBuffer buffer) throws NullPointerException {
+    checkNotNull(uuid);
+    buffer.putLong(uuid.getMostSignificantBits());
+    buffer.putLong(uuid.getLeastSignificantBits());
+  }
+
+  /**
+   * Writes the given UUID to the given buffer at the given index without
+   * changing the position of the buffer.
+   *
+   * @param uuid   the UUID
+   * @param buffer the buffer, which must use big-endian byte order
+   * @param index  the index of the first byte
+   * @throws NullPointerException      if {@code uuid} is {@code null}
+   * @throws IndexOutOfBoundsException if the buffer has less than 16 bytes after {@code index}
+   */
+  public static void toBuffer(UUID uuid, ByteBuffer buffer, int index)
+      throws NullPointerException, IndexOutOfBoundsException {
     checkNotNull(uuid);
+    buffer.putLong(index, uuid.getMostSignificantBits());
+    buffer.putLong(index + 8, uuid.getLeastSignificantBits());
+  }
+
+  /**
+   * Reads a big-endian long from the given array.
+   *
+   * @param bytes  the array
+   * @param offset the index of the first byte
+   * @return the long
+   */
+  private static long getLong(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xffL) << 56
+           | (bytes[offset + 1] & 0xffL) << 48
+           | (bytes[offset + 2] & 0xffL) << 40
+           | (bytes[offset + 3] & 0xffL) << 32
+           | (bytes[offset + 4] & 0xffL) << 24
+           | (bytes[offset + 5] & 0xffL) << 16
+           | (bytes[offset + 6] & 0xffL) << 8
+           | bytes[offset + 7] & 0xffL;
+  }
 
-    ByteBuffer byteBuffer = ByteBuffer.wrap(new byte[16]);
-    byteBuffer.putLong(uuid.getMostSignificantBits());
-    byteBuffer.putLong(uuid.getLeastSignificantBits());
-    return byteBuffer.array();
+  /**
+   * Writes a long to the given array in big-endian order.
+   *
+   * @param bytes  the array
+   * @param offset the index of the first byte
+   * @param value  the long
+   */
+  private static void putLong(byte[] bytes, int offset, long value) {
+    bytes[offset] = (byte) (value >>> 56);
+    bytes[offset + 1] = (byte) (value >>> 48);
+    bytes[offset + 2] = (byte) (value >>> 40);
+    bytes[offset + 3] = (byte) (value >>> 32);
+    bytes[offset + 4] = (byte) (value >>> 24);
+    bytes[offset + 5] = (byte) (value >>> 16);
+    bytes[offset + 6] = (byte) (value >>> 8);
+    bytes[offset + 7] = (byte) value;
   }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of UUIDs that can be queried and updated concurrently
+ * without locking.
+ *
+ * <p>If {@link #mightContain(UUID)} returns {@code false}, the UUID has
+ * definitely never been put into the filter. If it returns {@code true}, the
+ * UUID has been put into the filter or the result is a false positive. UUIDs
+ * cannot be removed.</p>
+ */
+public class UUIDBloomFilter {
+
+  private static final int MAX_HASHES = 16;
+  private static final double LN2 = Math.log(2);
+
+  private final AtomicLongArray words;
+  private final long bits;
+  private final int hashes;
+
+  /**
+   * Constructs an instance.
+   *
+   * @param wordCount the number of 64 bit words
+   * @param hashes    the number of hash functions
+   */
+  private UUIDBloomFilter(int wordCount, int hashes) {
+    this.words = new AtomicLongArray(wordCount);
+    this.bits = wordCount * 64L;
+    this.hashes = hashes;
+  }
+
+  /**
+   * Creates a filter that has the given false positive rate once the given
+   * number of UUIDs has been put into it, unless that would need more than
+   * the given number of bytes. In this case, the filter uses the given
+   * number of bytes and has a higher false positive rate.
+   *
+   * @param expectedInsertions the number of UUIDs that are expected to be put into the filter
+   * @param falsePositiveRate  the desired false positive rate, between {@code 0} and {@code 1}
+   * @param maxBytes           the maximum size of the filter in bytes
+   * @return the filter
+   * @throws IllegalArgumentException if the false positive rate is not between {@code 0} and {@code 1}
+   */
+  public static UUIDBloomFilter create(long expectedInsertions, double falsePositiveRate, long maxBytes)
+      throws IllegalArgumentException {
+    if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+      throw new IllegalArgumentException("The false positive rate must be between 0 and 1, but is "
+                                         + falsePositiveRate + ".");
+    }
+    long insertions = Math.max(1, expectedInsertions);
+    double optimalBits = -insertions * Math.log(falsePositiveRate) / (LN2 * LN2);
+    long maxBits = Math.min(Math.max(64, maxBytes * 8), Integer.MAX_VALUE * 64L);
+    long bitCount = Math.min(Math.max(64, (long) Math.ceil(optimalBits)), maxBits);
+
+    int wordCount = (int) ((bitCount + 63) / 64);
+    long hashCount = Math.round(wordCount * 64.0 / insertions * LN2);
+    return new UUIDBloomFilter(wordCount, (int) Math.max(1, Math.min(MAX_HASHES, hashCount)));
+  }
+
+  /**
+   * Puts the given UUID into this filter.
+   *
+   * @param uniqueId the UUID
+   */
+  public void put(UUID uniqueId) {
+    long hash1 = hash1(uniqueId);
+    long hash2 = hash2(uniqueId, hash1);
+    for (int i = 0; i < hashes; i++) {
+      long index = ((hash1 + i * hash2) & Long.MAX_VALUE) % bits;
+      int word = (int) (index >>> 6);
+      long mask = 1L << index;
+
+      long old = words.get(word);
+      while ((old & mask) == 0 && !words.compareAndSet(word, old, old | mask)) {
+        old = words.get(word);
+      }
+    }
+  }
+
+  /**
+   * Returns whether the given UUID might have been put into this filter.
+   *
+   * @param uniqueId the UUID
+   * @return {@code false} if the UUID has definitely not been put into this filter
+   */
+  public boolean mightContain(UUID uniqueId) {
+    long hash1 = hash1(uniqueId);
+    long hash2 = hash2(uniqueId, hash1);
+    for (int i = 0; i < hashes; i++) {
+      long index = ((hash1 + i * hash2) & Long.MAX_VALUE) % bits;
+      if ((words.get((int) (index >>> 6)) & (1L << index)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the size of this filter.
+   *
+   * @return the size in bytes
+   */
+  public long getSizeInBytes() {
+    return bits / 8;
+  }
+
+  /**
+   * Calculates the first hash of the given UUID.
+   *
+   * @param uniqueId the UUID
+   * @return the hash
+   */
+  private static long hash1(UUID uniqueId) {
+    return mix(uniqueId.getMostSignificantBits() ^ mix(uniqueId.getLeastSignificantBits()));
+  }
+
+  /**
+   * Calculates the second hash of the given UUID, which is always odd.
+   *
+   * @param uniqueId the UUID
+   * @param hash1    the first hash of the UUID
+   * @return the hash
+   */
+  private static long hash2(UUID uniqueId, long hash1) {
+    return mix(hash1 + uniqueId.getLeastSignificantBits()) | 1;
+  }
+
+  /**
+   * Mixes the bits of the given value, using the finalizer of SplitMix64.
+   *
+   * @param value the value
+   * @return the mixed value
+   */
+  private static long mix(long value) {
+    long mixed = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+    mixed = (mixed ^ (mixed >>> 27)) * 0x94d049bb133111ebL;
+    return mixed ^ (mixed >>> 31);
+  }
+}
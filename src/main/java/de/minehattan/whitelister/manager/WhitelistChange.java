@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+/**
+ * An immutable modification of the whitelist, as recorded in a change log.
+ */
+public class WhitelistChange {
+
+  /**
+   * The type of a change.
+   */
+  public enum Type {
+    /**
+     * An UUID has been added to the whitelist.
+     */
+    ADD,
+    /**
+     * An UUID has been removed from the whitelist.
+     */
+    REMOVE,
+    /**
+     * The name associated with an UUID has been updated.
+     */
+    RENAME
+  }
+
+  private final long sequence;
+  private final Type type;
+  private final UUID uniqueId;
+  @Nullable
+  private final String name;
+
+  /**
+   * Constructs an instance.
+   *
+   * @param sequence the sequence number of the change
+   * @param type     the type of the change
+   * @param uniqueId the affected UUID
+   * @param name     the associated name - {@code null} if the UUID has been removed
+   */
+  public WhitelistChange(long sequence, Type type, UUID uniqueId, @Nullable String name) {
+    this.sequence = sequence;
+    this.type = type;
+    this.uniqueId = uniqueId;
+    this.name = name;
+  }
+
+  /**
+   * Gets the sequence number. Later changes have higher sequence numbers.
+   *
+   * @return the sequence number
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * Gets the type.
+   *
+   * @return the type
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Gets the affected UUID.
+   *
+   * @return the UUID
+   */
+  public UUID getUniqueId() {
+    return uniqueId;
+  }
+
+  /**
+   * Gets the name associated with the UUID.
+   *
+   * @return the name - {@code null} if the UUID has been removed
+   */
+  @Nullable
+  public String getName() {
+    return name;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import com.google.common.base.Predicate;
+
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+/**
+ * An in-memory index of whitelist entries that maps UUIDs to names and names
+ * back to UUIDs.
+ *
+ * <p>Lookups are thread-safe. Modifications must not be made concurrently,
+ * callers need to serialize them.</p>
+ */
+public interface WhitelistIndex {
+
+  /**
+   * Associates the given UUID with the given name. If another UUID was
+   * associated with the same name, ignoring case, the name now refers to the
+   * given UUID.
+   *
+   * @param uniqueId the UUID
+   * @param name     the name
+   */
+  void put(UUID uniqueId, String name);
+
+  /**
+   * Removes the given UUID and its name from this index.
+   *
+   * @param uniqueId the UUID
+   */
+  void remove(UUID uniqueId);
+
+  /**
+   * Gets the name that is associated with the given UUID.
+   *
+   * @param uniqueId the UUID
+   * @return the name or {@code null} if the UUID is not indexed
+   */
+  @Nullable
+  String getName(UUID uniqueId);
+
+  /**
+   * Returns whether the given UUID is indexed.
+   *
+   * @param uniqueId the UUID
+   * @return {@code true} if the UUID is indexed
+   */
+  boolean contains(UUID uniqueId);
+
+  /**
+   * Gets the UUID that is associated with the given name, ignoring case.
+   *
+   * @param name the name
+   * @return the UUID or {@code null} if the name is not indexed
+   */
+  @Nullable
+  UUID getUniqueId(String name);
+
+  /**
+   * Gets the number of indexed UUIDs.
+   *
+   * @return the number of UUIDs
+   */
+  int size();
+
+  /**
+   * Passes every indexed entry to the given consumer until it returns
+   * {@code false}.
+   *
+   * @param consumer the consumer that receives the entries
+   * @return the number of entries passed to the consumer
+   */
+  int forEachEntry(Predicate<Entry<UUID, String>> consumer);
+}
@@ -19,7 +19,11 @@
 
 package de.minehattan.whitelister.manager;
 
+import com.google.common.base.Predicate;
+
+import java.util.Collection;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
@@ -33,31 +37,64 @@ public interface WhitelistManager {
 
   /**
    * Adds the given UUID to the whitelist and associates it with the given
-   * name.
+   * name, unless the UUID is already on the whitelist. The check and the
+   * insert are a single atomic operation.
    *
    * @param uniqueId the UUID
    * @param name     the name
+   * @return an AddResult that describes the outcome
+   */
+  AddResult add(UUID uniqueId, String name);
+
+  /**
+   * Adds all given UUIDs to the whitelist and associates them with the given
+   * names. UUIDs that are already on the whitelist are skipped. The entries
+   * are written in a single transaction.
+   *
+   * @param entries the UUIDs and the names
+   * @return the number of entries that were actually added
    */
-  void add(UUID uniqueId, String name);
+  int addAll(Map<UUID, String> entries);
 
   /**
    * Removes the given UUID from the whitelist.
    *
    * @param uniqueId the UUID
+   * @return a RemoveResult that describes the outcome
    */
-  void remove(UUID uniqueId);
+  RemoveResult remove(UUID uniqueId);
+
+  /**
+   * Removes all given UUIDs from the whitelist. UUIDs that are not on the
+   * whitelist are skipped. The removals are written in a single transaction.
+   *
+   * @param uniqueIds the UUIDs
+   * @return the number of entries that were actually removed
+   */
+  int removeAll(Collection<UUID> uniqueIds);
 
   /**
    * Updates the name that is associated with the given UUID.
    *
    * @param uniqueId the UUID
    * @param name     the name
+   * @return {@code true} if the name was written, {@code false} if the UUID
+   *         is not on the whitelist or the update failed
    */
-  void updateName(UUID uniqueId, String name);
+  boolean updateName(UUID uniqueId, String name);
+
+  /**
+   * Updates the names that are associated with the given UUIDs. The updates
+   * are written in a single transaction.
+   *
+   * @param names the UUIDs and the new names
+   * @return the number of names that were actually written
+   */
+  int updateNames(Map<UUID, String> names);
 
   /**
    * Gets the UUID that is associated with the given name or {@code null} if
-   * there is none.
+   * there is none. The name is matched case-insensitively.
    *
    * @param name the name
    * @return the corresponding UUID
@@ -65,6 +102,16 @@ public interface WhitelistManager {
   @Nullable
   UUID getUniqueID(String name);
 
+  /**
+   * Gets the UUIDs that are associated with the given names. The names are
+   * matched case-insensitively. Names that are not associated with any UUID
+   * are not contained in the result.
+   *
+   * @param names the names
+   * @return an immutable map of the names, as stored on the whitelist, and the corresponding UUIDs
+   */
+  Map<String, UUID> getUniqueIDs(Collection<String> names);
+
   /**
    * Returns whether the whitelist contains the given UUID.
    *
@@ -73,6 +120,15 @@ public interface WhitelistManager {
    */
   CheckResult contains(UUID uniqueId);
 
+  /**
+   * Gets the names of those of the given UUIDs that are on the whitelist.
+   * UUIDs that are not on the whitelist are not contained in the result.
+   *
+   * @param uniqueIds the UUIDs
+   * @return an immutable map of the UUIDs on the whitelist and their names
+   */
+  Map<UUID, String> getNames(Collection<UUID> uniqueIds);
+
   /**
    * Gets an immutable representation of the UUIDs on the whitelist and the
    * associated names.
@@ -81,6 +137,41 @@ public interface WhitelistManager {
    */
   Map<UUID, String> getWhitelist();
 
+  /**
+   * Gets up to {@code limit} entries of the whitelist whose UUIDs follow the
+   * given UUID in the order used by this manager. Passing the last UUID of a
+   * page returns the next page.
+   *
+   * @param after the UUID that precedes the page or {@code null} to get the first page
+   * @param limit the maximum number of entries
+   * @return an immutable, ordered map of the entries on the page
+   */
+  Map<UUID, String> getPage(@Nullable UUID after, int limit);
+
+  /**
+   * Gets the number of entries on the whitelist.
+   *
+   * @return the number of entries
+   */
+  int count();
+
+  /**
+   * Passes every entry of the whitelist to the given consumer without
+   * materializing the whole whitelist in memory. The iteration stops as soon
+   * as the consumer returns {@code false}.
+   *
+   * @param consumer the consumer of the entries
+   * @return the number of entries passed to the consumer or {@code -1} if the whitelist could not be read
+   *         completely
+   */
+  int forEachEntry(Predicate<Entry<UUID, String>> consumer);
+
+  /**
+   * Releases all resources held by this manager. The manager must not be used
+   * afterwards.
+   */
+  void close();
+
   /**
    * The immutable result of a whitelist check.
    */
@@ -121,4 +212,97 @@ public interface WhitelistManager {
     }
   }
 
+  /**
+   * The possible outcomes of removing an entry from the whitelist.
+   */
+  enum RemoveResult {
+    /**
+     * The entry has been removed.
+     */
+    REMOVED,
+    /**
+     * The UUID is not on the whitelist.
+     */
+    NOT_PRESENT,
+    /**
+     * The entry could not be removed due to an error.
+     */
+    FAILED
+  }
+
+  /**
+   * The immutable result of adding an entry to the whitelist.
+   */
+  class AddResult {
+
+    /**
+     * The possible outcomes of adding an entry.
+     */
+    public enum Status {
+      /**
+       * The entry has been added.
+       */
+      ADDED,
+      /**
+       * The UUID is already on the whitelist with the same name.
+       */
+      ALREADY_PRESENT,
+      /**
+       * The UUID is already on the whitelist, but with a different name.
+       */
+      NAME_DIFFERS,
+      /**
+       * The entry could not be added due to an error.
+       */
+      FAILED
+    }
+
+    private final Status status;
+    @Nullable
+    private final String whitelistedName;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param status          the outcome
+     * @param whitelistedName the name as stored on the Whitelist - can be {@code null}
+     *                        if the entry could not be added
+     */
+    public AddResult(Status status, @Nullable String whitelistedName) {
+      this.status = status;
+      this.whitelistedName = whitelistedName;
+    }
+
+    /**
+     * Creates the result of adding an entry with the given name if the given
+     * name is already stored on the whitelist.
+     *
+     * @param name            the name that should have been added
+     * @param whitelistedName the name as stored on the Whitelist
+     * @return the result
+     */
+    public static AddResult existing(String name, String whitelistedName) {
+      return new AddResult(name.equalsIgnoreCase(whitelistedName) ? Status.ALREADY_PRESENT : Status.NAME_DIFFERS,
+          whitelistedName);
+    }
+
+    /**
+     * Gets the status.
+     *
+     * @return the status
+     */
+    public Status getStatus() {
+      return status;
+    }
+
+    /**
+     * Gets the whitelistedName.
+     *
+     * @return the whitelistedName
+     */
+    public String getWhitelistedName() {
+      return whitelistedName;
+    }
+  }
+
 }
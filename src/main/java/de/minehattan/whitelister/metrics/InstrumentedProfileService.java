@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.metrics;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.sk89q.squirrelid.Profile;
+import com.sk89q.squirrelid.resolver.ProfileService;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Records the call count, error count and latency of the lookups of another
+ * ProfileService.
+ */
+public class InstrumentedProfileService implements ProfileService {
+
+  private final ProfileService delegate;
+  private final LatencyHistogram findByName;
+  private final LatencyHistogram findAllByName;
+
+  /**
+   * Initializes this service.
+   *
+   * @param delegate the ProfileService whose lookups are measured
+   * @param metrics  the Metrics the histograms are registered with
+   * @param prefix   the prefix of the names of the histograms
+   */
+  public InstrumentedProfileService(ProfileService delegate, Metrics metrics, String prefix) {
+    this.delegate = delegate;
+    findByName = metrics.histogram(prefix + "findByName");
+    findAllByName = metrics.histogram(prefix + "findAllByName");
+  }
+
+  @Override
+  public int getIdealRequestLimit() {
+    return delegate.getIdealRequestLimit();
+  }
+
+  @Nullable
+  @Override
+  public Profile findByName(String name) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    try {
+      Profile result = delegate.findByName(name);
+      findByName.recordSince(start);
+      return result;
+    } catch (IOException e) {
+      findByName.recordError();
+      throw e;
+    } catch (RuntimeException e) {
+      findByName.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public ImmutableList<Profile> findAllByName(Iterable<String> names) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    try {
+      ImmutableList<Profile> result = delegate.findAllByName(names);
+      findAllByName.recordSince(start);
+      return result;
+    } catch (IOException e) {
+      findAllByName.recordError();
+      throw e;
+    } catch (RuntimeException e) {
+      findAllByName.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public void findAllByName(Iterable<String> names, Predicate<Profile> consumer)
+      throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    try {
+      delegate.findAllByName(names, consumer);
+      findAllByName.recordSince(start);
+    } catch (IOException e) {
+      findAllByName.recordError();
+      throw e;
+    } catch (RuntimeException e) {
+      findAllByName.recordError();
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.metrics;
+
+import com.google.common.base.Predicate;
+
+import de.minehattan.whitelister.manager.WhitelistManager;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+/**
+ * Records the call count, error count and latency of every operation of
+ * another WhitelistManager.
+ *
+ * <p>The wrapped managers log and swallow database errors, so only errors
+ * that are thrown are counted here. The errors a MySQLWhitelistManager
+ * swallows can be counted in the same histograms through its
+ * WhitelistErrorListener.</p>
+ */
+public class InstrumentedWhitelistManager implements WhitelistManager {
+
+  private final WhitelistManager delegate;
+  private final LatencyHistogram add;
+  private final LatencyHistogram addAll;
+  private final LatencyHistogram remove;
+  private final LatencyHistogram removeAll;
+  private final LatencyHistogram updateName;
+  private final LatencyHistogram updateNames;
+  private final LatencyHistogram getUniqueID;
+  private final LatencyHistogram getUniqueIDs;
+  private final LatencyHistogram contains;
+  private final LatencyHistogram getNames;
+  private final LatencyHistogram getWhitelist;
+  private final LatencyHistogram getPage;
+  private final LatencyHistogram count;
+  private final LatencyHistogram forEachEntry;
+
+  /**
+   * Initializes this manager.
+   *
+   * @param delegate the WhitelistManager whose operations are measured
+   * @param metrics  the Metrics the histograms are registered with
+   * @param prefix   the prefix of the names of the histograms
+   */
+  public InstrumentedWhitelistManager(WhitelistManager delegate, Metrics metrics, String prefix) {
+    this.delegate = delegate;
+    add = metrics.histogram(prefix + "add");
+    addAll = metrics.histogram(prefix + "addAll");
+    remove = metrics.histogram(prefix + "remove");
+    removeAll = metrics.histogram(prefix + "removeAll");
+    updateName = metrics.histogram(prefix + "updateName");
+    updateNames = metrics.histogram(prefix + "updateNames");
+    getUniqueID = metrics.histogram(prefix + "getUniqueID");
+    getUniqueIDs = metrics.histogram(prefix + "getUniqueIDs");
+    contains = metrics.histogram(prefix + "contains");
+    getNames = metrics.histogram(prefix + "getNames");
+    getWhitelist = metrics.histogram(prefix + "getWhitelist");
+    getPage = metrics.histogram(prefix + "getPage");
+    count = metrics.histogram(prefix + "count");
+    forEachEntry = metrics.histogram(prefix + "forEachEntry");
+  }
+
+  @Override
+  public AddResult add(UUID uniqueId, String name) {
+    long start = System.nanoTime();
+    try {
+      AddResult result = delegate.add(uniqueId, name);
+      add.recordSince(start);
+      return result;
+    } catch (RuntimeException e) {
+      add.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public int addAll(Map<UUID, String> entries) {
+    long start = System.nanoTime();
+    try {
+      int result = delegate.addAll(entries);
+      addAll.recordSince(start);
+      return result;
+    } catch (RuntimeException e) {
+      addAll.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public RemoveResult remove(UUID uniqueId) {
+    long start = System.nanoTime();
+    try {
+      RemoveResult result = delegate.remove(uniqueId);
+      remove.recordSince(start);
+      return result;
+    } catch (RuntimeException e) {
+      remove.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public int removeAll(Collection<UUID> uniqueIds) {
+    long start = System.nanoTime();
+    try {
+      int result = delegate.removeAll(uniqueIds);
+      removeAll.recordSince(start);
+      return result;
+    } catch (RuntimeException e) {
+      removeAll.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public boolean updateName(UUID uniqueId, String name) {
+    long start = System.nanoTime();
+    try {
+      boolean updated = delegate.updateName(uniqueId, name);
+      updateName.recordSince(start);
+      return updated;
+    } catch (RuntimeException e) {
+      updateName.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public int updateNames(Map<UUID, String> names) {
+    long start = System.nanoTime();
+    try {
+      int updated = delegate.updateNames(names);
+      updateNames.recordSince(start);
+      return updated;
+    } catch (RuntimeException e) {
+      updateNames.recordError();
+      throw e;
+    }
+  }
+
+  @Nullable
+  @Override
+  public UUID getUniqueID(String name) {
+    long start = System.nanoTime();
+    try {
+      UUID result = delegate.getUniqueID(name);
+      getUniqueID.recordSince(start);
+      return result;
+    } catch (RuntimeException e) {
+      getUniqueID.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public Map<String, UUID> getUniqueIDs(Collection<String> names) {
+    long start = System.nanoTime();
+    try {
+      Map<String, UUID> result = delegate.getUniqueIDs(names);
+      getUniqueIDs.recordSince(start);
+      return result;
+    } catch (RuntimeException e) {
+      getUniqueIDs.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public CheckResult contains(UUID uniqueId) {
+    long start = System.nanoTime();
+    try {
+      CheckResult result = delegate.contains(uniqueId);
+      contains.recordSince(start);
+      return result;
+    } catch (RuntimeException e) {
+      contains.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public Map<UUID, String> getNames(Collection<UUID> uniqueIds) {
+    long start = System.nanoTime();
+    try {
+      Map<UUID, String> result = delegate.getNames(uniqueIds);
+      getNames.recordSince(start);
+      return result;
+    } catch (RuntimeException e) {
+      getNames.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public Map<UUID, String> getWhitelist() {
+    long start = System.nanoTime();
+    try {
+      Map<UUID, String> result = delegate.getWhitelist();
+      getWhitelist.recordSince(start);
+      return result;
+    } catch (RuntimeException e) {
+      getWhitelist.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public Map<UUID, String> getPage(@Nullable UUID after, int limit) {
+    long start = System.nanoTime();
+    try {
+      Map<UUID, String> result = delegate.getPage(after, limit);
+      getPage.recordSince(start);
+      return result;
+    } catch (RuntimeException e) {
+      getPage.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public int count() {
+    long start = System.nanoTime();
+    try {
+      int result = delegate.count();
+      count.recordSince(start);
+      return result;
+    } catch (RuntimeException e) {
+      count.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public int forEachEntry(Predicate<Entry<UUID, String>> consumer) {
+    long start = System.nanoTime();
+    try {
+      int result = delegate.forEachEntry(consumer);
+      forEachEntry.recordSince(start);
+      return result;
+    } catch (RuntimeException e) {
+      forEachEntry.recordError();
+      throw e;
+    }
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+}
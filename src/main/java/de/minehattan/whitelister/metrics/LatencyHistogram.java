@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the calls and errors of one operation and records their latencies
+ * in a histogram.
+ *
+ * <p>The histogram has one bucket per power of two nanoseconds, so recording
+ * is a few atomic increments and never allocates. Percentiles are therefore
+ * approximate: a reported percentile is the upper bound of the bucket it
+ * falls into, but never more than the maximum.</p>
+ */
+public class LatencyHistogram {
+
+  private static final int BUCKETS = 64;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * Records a successful call that took the given time.
+   *
+   * @param nanos the duration in nanoseconds
+   */
+  public void record(long nanos) {
+    long duration = Math.max(0, nanos);
+    buckets.incrementAndGet(bucket(duration));
+    count.incrementAndGet();
+    totalNanos.addAndGet(duration);
+
+    long max = maxNanos.get();
+    while (duration > max && !maxNanos.compareAndSet(max, duration)) {
+      max = maxNanos.get();
+    }
+  }
+
+  /**
+   * Records a call that started at the given time and ended now.
+   *
+   * @param startNanos the start time, as returned by {@link System#nanoTime()}
+   */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Records a failed call.
+   */
+  public void recordError() {
+    errors.incrementAndGet();
+  }
+
+  /**
+   * Gets the number of successful calls.
+   *
+   * @return the number of calls
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Gets the number of failed calls.
+   *
+   * @return the number of errors
+   */
+  public long getErrors() {
+    return errors.get();
+  }
+
+  /**
+   * Gets the mean duration of all successful calls.
+   *
+   * @return the mean duration in nanoseconds or {@code 0} if there were no calls
+   */
+  public long getMeanNanos() {
+    long calls = count.get();
+    return calls > 0 ? totalNanos.get() / calls : 0;
+  }
+
+  /**
+   * Gets the longest duration of all successful calls.
+   *
+   * @return the maximum duration in nanoseconds
+   */
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  /**
+   * Gets the approximate duration that the given fraction of all successful
+   * calls did not exceed.
+   *
+   * @param percentile the fraction, between {@code 0} and {@code 1}
+   * @return the duration in nanoseconds or {@code 0} if there were no calls
+   */
+  public long getPercentileNanos(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = buckets.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(percentile * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank && snapshot[i] > 0) {
+        long upperBound = i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+        return Math.min(upperBound, getMaxNanos());
+      }
+    }
+    return getMaxNanos();
+  }
+
+  /**
+   * Gets the bucket of the given duration.
+   *
+   * @param nanos the duration in nanoseconds, not negative
+   * @return the index of the bucket
+   */
+  private static int bucket(long nanos) {
+    return nanos == 0 ? 0 : BUCKETS - 1 - Long.numberOfLeadingZeros(nanos);
+  }
+}
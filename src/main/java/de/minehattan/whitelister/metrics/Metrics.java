@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.metrics;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the {@link LatencyHistogram}s of all measured operations, by name.
+ */
+public class Metrics {
+
+  private final ConcurrentMap<String, LatencyHistogram> histograms =
+      new ConcurrentSkipListMap<String, LatencyHistogram>();
+  private final long startNanos = System.nanoTime();
+
+  /**
+   * Gets the histogram of the operation with the given name, creating it if
+   * it does not exist yet.
+   *
+   * @param name the name of the operation
+   * @return the histogram
+   */
+  public LatencyHistogram histogram(String name) {
+    LatencyHistogram histogram = histograms.get(name);
+    if (histogram == null) {
+      histogram = new LatencyHistogram();
+      LatencyHistogram existing = histograms.putIfAbsent(name, histogram);
+      if (existing != null) {
+        histogram = existing;
+      }
+    }
+    return histogram;
+  }
+
+  /**
+   * Creates a human readable report with one line per operation that has
+   * been called at least once.
+   *
+   * @return the lines of the report
+   */
+  public List<String> report() {
+    double uptime = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos));
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+    for (Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+      LatencyHistogram histogram = entry.getValue();
+      if (histogram.getCount() == 0 && histogram.getErrors() == 0) {
+        continue;
+      }
+      builder.add(String.format(Locale.ENGLISH,
+                                "%s: %d calls (%.2f/s), %d errors, mean %s, p50 %s, p99 %s, max %s",
+                                entry.getKey(), histogram.getCount(), histogram.getCount() / uptime,
+                                histogram.getErrors(), formatNanos(histogram.getMeanNanos()),
+                                formatNanos(histogram.getPercentileNanos(0.5)),
+                                formatNanos(histogram.getPercentileNanos(0.99)),
+                                formatNanos(histogram.getMaxNanos())));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Writes the report to the given file, replacing its content.
+   *
+   * @param file the file
+   * @throws IOException if the file cannot be written
+   */
+  public void dump(File file) throws IOException {
+    PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8));
+    try {
+      writer.println("# Whitelister metrics, " + new Date());
+      for (String line : report()) {
+        writer.println(line);
+      }
+      if (writer.checkError()) {
+        throw new IOException("Failed to write the metrics to '" + file + "'.");
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Formats the given duration in milliseconds.
+   *
+   * @param nanos the duration in nanoseconds
+   * @return the formatted duration
+   */
+  private static String formatNanos(long nanos) {
+    return String.format(Locale.ENGLISH, "%.2fms", nanos / 1e6);
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.sk89q.squirrelid.Profile;
+import com.sk89q.squirrelid.resolver.ProfileService;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tests the {@link CachingProfileService} with a stub ProfileService.
+ */
+public class CachingProfileServiceTest {
+
+  private static final long TTL = TimeUnit.HOURS.toMillis(1);
+  private static final UUID NOTCH = UUID.fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+  private static final UUID JEB = UUID.fromString("853c80ef-3c37-49fd-aa49-938b674adae6");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private StubProfileService stub;
+  private CachingProfileService service;
+
+  /**
+   * Creates the services.
+   */
+  @Before
+  public void setUp() {
+    stub = new StubProfileService(ImmutableMap.of("notch", new Profile(NOTCH, "Notch"),
+                                                  "jeb_", new Profile(JEB, "jeb_")));
+    service = new CachingProfileService(stub, 100, TTL, TTL);
+  }
+
+  /**
+   * Tests that found and unknown names are only looked up once.
+   *
+   * @throws Exception if the lookup fails
+   */
+  @Test
+  public void cachesFoundAndUnknownNames() throws Exception {
+    assertEquals(NOTCH, service.findByName("Notch").getUniqueId());
+    assertEquals(NOTCH, service.findByName("NOTCH").getUniqueId());
+    assertNull(service.findByName("unknown"));
+    assertNull(service.findByName("unknown"));
+    assertEquals(ImmutableList.of("Notch", "unknown"), stub.requested);
+  }
+
+  /**
+   * Tests that only names that are not cached are looked up in bulk.
+   *
+   * @throws Exception if the lookup fails
+   */
+  @Test
+  public void looksUpMissingNamesOnly() throws Exception {
+    service.findByName("Notch");
+    List<Profile> found = service.findAllByName(ImmutableList.of("notch", "jeb_", "unknown"));
+    assertEquals(2, found.size());
+    assertEquals(ImmutableList.of("Notch", "jeb_", "unknown"), stub.requested);
+  }
+
+  /**
+   * Tests that saved profiles are loaded without looking them up again.
+   *
+   * @throws Exception if the file cannot be written or read
+   */
+  @Test
+  public void loadsSavedProfiles() throws Exception {
+    service.findAllByName(ImmutableList.of("Notch", "unknown"));
+    File file = new File(folder.getRoot(), "profileCache.dat");
+    service.save(file);
+
+    StubProfileService empty = new StubProfileService(ImmutableMap.<String, Profile>of());
+    CachingProfileService loaded = new CachingProfileService(empty, 100, TTL, TTL);
+    loaded.load(file);
+    assertEquals(NOTCH, loaded.findByName("notch").getUniqueId());
+    assertNull(loaded.findByName("unknown"));
+    assertEquals(0, empty.requested.size());
+  }
+
+  /**
+   * Tests that saving replaces an existing file and does not leave the
+   * temporary file behind.
+   *
+   * @throws Exception if the file cannot be written or read
+   */
+  @Test
+  public void saveReplacesExistingFile() throws Exception {
+    File file = new File(folder.getRoot(), "profileCache.dat");
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      output.write("corrupt".getBytes(Charsets.UTF_8));
+    } finally {
+      output.close();
+    }
+    service.findByName("jeb_");
+    service.save(file);
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+
+    CachingProfileService loaded = new CachingProfileService(stub, 100, TTL, TTL);
+    loaded.load(file);
+    assertEquals(JEB, loaded.findByName("JEB_").getUniqueId());
+    assertEquals(ImmutableList.of("jeb_"), stub.requested);
+  }
+
+  /**
+   * Tests that expired profiles are neither returned nor saved.
+   *
+   * @throws Exception if the file cannot be written or read
+   */
+  @Test
+  public void expiredProfilesAreLookedUpAgain() throws Exception {
+    CachingProfileService expiring = new CachingProfileService(stub, 100, -1, -1);
+    expiring.findByName("Notch");
+    expiring.findByName("Notch");
+    assertEquals(ImmutableList.of("Notch", "Notch"), stub.requested);
+
+    File file = new File(folder.getRoot(), "profileCache.dat");
+    expiring.save(file);
+    StubProfileService empty = new StubProfileService(ImmutableMap.<String, Profile>of());
+    CachingProfileService loaded = new CachingProfileService(empty, 100, TTL, TTL);
+    loaded.load(file);
+    assertNull(loaded.findByName("Notch"));
+    assertEquals(ImmutableList.of("Notch"), empty.requested);
+  }
+
+  /**
+   * A ProfileService that resolves a fixed set of profiles and records every
+   * requested name.
+   */
+  private static final class StubProfileService implements ProfileService {
+
+    private final Map<String, Profile> profiles;
+    private final List<String> requested = new ArrayList<String>();
+
+    /**
+     * Constructs an instance.
+     *
+     * @param profiles the profiles by lower-cased name
+     */
+    private StubProfileService(Map<String, Profile> profiles) {
+      this.profiles = profiles;
+    }
+
+    @Override
+    public int getIdealRequestLimit() {
+      return 100;
+    }
+
+    @Nullable
+    @Override
+    public Profile findByName(String name) throws IOException, InterruptedException {
+      requested.add(name);
+      return profiles.get(name.toLowerCase(Locale.ENGLISH));
+    }
+
+    @Override
+    public ImmutableList<Profile> findAllByName(Iterable<String> names) throws IOException, InterruptedException {
+      ImmutableList.Builder<Profile> builder = ImmutableList.builder();
+      for (String name : names) {
+        Profile profile = findByName(name);
+        if (profile != null) {
+          builder.add(profile);
+        }
+      }
+      return builder.build();
+    }
+
+    @Override
+    public void findAllByName(Iterable<String> names, Predicate<Profile> consumer)
+        throws IOException, InterruptedException {
+      for (Profile profile : findAllByName(names)) {
+        consumer.apply(profile);
+      }
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Tests the {@link CachingWhitelistManager} on top of a
+ * {@link MySQLWhitelistManager} whose table is shared with another server,
+ * using an embedded H2 database in MySQL mode.
+ */
+public class CachingWhitelistManagerTest {
+
+  private static final String TABLE = "whitelist";
+
+  private String dsn;
+  private MySQLWhitelistManager database;
+  private MySQLWhitelistManager otherServer;
+
+  /**
+   * Creates the table in a new in-memory database.
+   */
+  @Before
+  public void setUp() {
+    dsn = "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+    database = new MySQLWhitelistManager(new ConnectionPool(dsn, "sa", "", 0, 1, 60000, 5000, 5000), TABLE);
+    database.updateSchema();
+    otherServer = new MySQLWhitelistManager(new ConnectionPool(dsn, "sa", "", 0, 1, 60000, 5000, 5000), TABLE);
+  }
+
+  /**
+   * Closes the database.
+   */
+  @After
+  public void tearDown() {
+    RewritingDriver.setBeforeBatch(null);
+    otherServer.close();
+    database.close();
+  }
+
+  @Test
+  public void addAllIndexesAddedEntries() {
+    CachingWhitelistManager cache = new CachingWhitelistManager(database);
+    UUID first = UUID.randomUUID();
+    UUID second = UUID.randomUUID();
+    assertEquals(2, cache.addAll(ImmutableMap.of(first, "First", second, "Second")));
+    assertEquals(ImmutableMap.of(first, "First", second, "Second"),
+                 cache.getNames(ImmutableList.of(first, second)));
+  }
+
+  @Test
+  public void addAllIndexesStoredNameOfSkippedEntries() {
+    CachingWhitelistManager cache = new CachingWhitelistManager(database);
+    UUID first = UUID.randomUUID();
+    UUID second = UUID.randomUUID();
+    otherServer.add(second, "StoredName");
+
+    assertEquals(1, cache.addAll(ImmutableMap.of(first, "First", second, "RequestedName")));
+    Map<UUID, String> names = cache.getNames(ImmutableList.of(first, second));
+    assertEquals(ImmutableMap.of(first, "First", second, "StoredName"), names);
+  }
+
+  @Test
+  public void addAllIndexesStoredNameOfSkippedEntriesWithRewrittenBatches() {
+    MySQLWhitelistManager rewriting =
+        new MySQLWhitelistManager(new ConnectionPool(RewritingDriver.wrap(dsn), "sa", "", 0, 1, 60000, 5000, 5000),
+                                  TABLE);
+    try {
+      CachingWhitelistManager cache = new CachingWhitelistManager(rewriting);
+      final UUID first = UUID.randomUUID();
+      final UUID second = UUID.randomUUID();
+      RewritingDriver.setBeforeBatch(new Runnable() {
+        @Override
+        public void run() {
+          RewritingDriver.setBeforeBatch(null);
+          otherServer.add(second, "StoredName");
+        }
+      });
+
+      assertEquals(1, cache.addAll(ImmutableMap.of(first, "First", second, "RequestedName")));
+      Map<UUID, String> names = cache.getNames(ImmutableList.of(first, second));
+      assertEquals(ImmutableMap.of(first, "First", second, "StoredName"), names);
+    } finally {
+      rewriting.close();
+    }
+  }
+
+  @Test
+  public void updateNameKeepsIndexIfNothingWasWritten() {
+    CachingWhitelistManager cache = new CachingWhitelistManager(database);
+    UUID uniqueId = UUID.randomUUID();
+    cache.add(uniqueId, "First");
+    otherServer.remove(uniqueId);
+
+    assertFalse(cache.updateName(uniqueId, "Renamed"));
+    assertEquals(ImmutableMap.of(uniqueId, "First"), cache.getNames(ImmutableList.of(uniqueId)));
+  }
+
+  @Test
+  public void updateNamesIndexesOnlyWrittenNames() {
+    CachingWhitelistManager cache = new CachingWhitelistManager(database);
+    UUID first = UUID.randomUUID();
+    UUID second = UUID.randomUUID();
+    cache.addAll(ImmutableMap.of(first, "First", second, "Second"));
+    otherServer.remove(second);
+
+    assertEquals(1, cache.updateNames(ImmutableMap.of(first, "RenamedFirst", second, "RenamedSecond")));
+    assertEquals(ImmutableMap.of(first, "RenamedFirst", second, "Second"),
+                 cache.getNames(ImmutableList.of(first, second)));
+  }
+}
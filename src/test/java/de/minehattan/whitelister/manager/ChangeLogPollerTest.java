@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minehattan.whitelister.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the {@link ChangeLogPoller} against the change log of a
+ * {@link MySQLWhitelistManager} on an embedded H2 database in MySQL mode.
+ */
+public class ChangeLogPollerTest {
+
+  private static final String TABLE = "whitelist";
+  private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+  private final List<Long> applied = new ArrayList<Long>();
+  private final WhitelistChangeListener listener = new WhitelistChangeListener() {
+    @Override
+    public void apply(WhitelistChange change) {
+      applied.add(change.getSequence());
+    }
+  };
+
+  private MySQLWhitelistManager manager;
+  private Connection conn;
+
+  /**
+   * Creates the tables in a new in-memory database.
+   *
+   * @throws SQLException if the database cannot be opened
+   */
+  @Before
+  public void setUp() throws SQLException {
+    String dsn = "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+    manager = new MySQLWhitelistManager(new ConnectionPool(dsn, "sa", "", 0, 1, 60000, 5000, 5000), TABLE);
+    manager.updateSchema();
+    assertTrue(manager.enableChangeLog());
+    conn = DriverManager.getConnection(dsn, "sa", "");
+  }
+
+  /**
+   * Closes the database.
+   *
+   * @throws SQLException if the connection cannot be closed
+   */
+  @After
+  public void tearDown() throws SQLException {
+    conn.close();
+    manager.close();
+  }
+
+  @Test
+  public void appliesChangesInOrder() throws SQLException {
+    insertChanges(1, 2, 3);
+    ChangeLogPoller poller = new ChangeLogPoller(manager, listener, 0, NEVER, 0, NEVER);
+    try {
+      poller.run();
+      assertEquals(ImmutableList.of(1L, 2L, 3L), applied);
+      assertEquals(3, poller.getLastSequence());
+    } finally {
+      poller.close();
+    }
+  }
+
+  @Test
+  public void gapDoesNotStallLaterChanges() throws SQLException {
+    insertChanges(1, 3);
+    ChangeLogPoller poller = new ChangeLogPoller(manager, listener, 0, NEVER, 0, NEVER);
+    try {
+      poller.run();
+      assertEquals(ImmutableList.of(1L, 3L), applied);
+      assertEquals(1, poller.getLastSequence());
+    } finally {
+      poller.close();
+    }
+  }
+
+  @Test
+  public void lateCommitIsAppliedOnce() throws SQLException {
+    insertChanges(1, 3);
+    ChangeLogPoller poller = new ChangeLogPoller(manager, listener, 0, NEVER, 0, NEVER);
+    try {
+      poller.run();
+      insertChanges(2);
+      poller.run();
+      poller.run();
+      assertEquals(ImmutableList.of(1L, 3L, 2L), applied);
+      assertEquals(3, poller.getLastSequence());
+    } finally {
+      poller.close();
+    }
+  }
+
+  @Test
+  public void rolledBackGapIsSkippedAfterTimeout() throws SQLException {
+    insertChanges(1, 3, 4);
+    ChangeLogPoller poller = new ChangeLogPoller(manager, listener, 0, NEVER, 0, 0);
+    try {
+      poller.run();
+      assertEquals(1, poller.getLastSequence());
+      poller.run();
+      assertEquals(ImmutableList.of(1L, 3L, 4L), applied);
+      assertEquals(4, poller.getLastSequence());
+    } finally {
+      poller.close();
+    }
+  }
+
+  @Test
+  public void expiredGapsAreSkippedTogether() throws SQLException {
+    insertChanges(1, 3, 5, 8);
+    ChangeLogPoller poller = new ChangeLogPoller(manager, listener, 0, NEVER, 0, 0);
+    try {
+      poller.run();
+      assertEquals(1, poller.getLastSequence());
+      poller.run();
+      assertEquals(ImmutableList.of(1L, 3L, 5L, 8L), applied);
+      assertEquals(8, poller.getLastSequence());
+    } finally {
+      poller.close();
+    }
+  }
+
+  @Test
+  public void partlyFilledGapKeepsItsTime() throws SQLException {
+    insertChanges(1, 5);
+    ChangeLogPoller poller = new ChangeLogPoller(manager, listener, 0, NEVER, 0, 0);
+    try {
+      poller.run();
+      insertChanges(3);
+      poller.run();
+      assertEquals(ImmutableList.of(1L, 5L, 3L), applied);
+      assertEquals(5, poller.getLastSequence());
+    } finally {
+      poller.close();
+    }
+  }
+
+  @Test
+  public void newGapIsNotSkippedByThePollThatNoticedIt() throws SQLException {
+    insertChanges(1, 3);
+    ChangeLogPoller poller = new ChangeLogPoller(manager, listener, 0, NEVER, 0, 0);
+    try {
+      poller.run();
+      poller.run();
+      assertEquals(3, poller.getLastSequence());
+      insertChanges(6, 9);
+      poller.run();
+      assertEquals(3, poller.getLastSequence());
+      poller.run();
+      assertEquals(ImmutableList.of(1L, 3L, 6L, 9L), applied);
+      assertEquals(9, poller.getLastSequence());
+    } finally {
+      poller.close();
+    }
+  }
+
+  /**
+   * Writes changes with the given sequence numbers to the change log, as if
+   * their transactions had just committed.
+   *
+   * @param sequences the sequence numbers
+   * @throws SQLException if the changes cannot be written
+   */
+  private void insertChanges(long... sequences) throws SQLException {
+    PreparedStatement stmnt =
+        conn.prepareStatement("INSERT INTO `" + TABLE + "_changelog` (`sequence`, `change-type`, `minecraft-uuid`, "
+                              + "`minecraft-name`, `created`) VALUES (?, ?, ?, ?, ?);");
+    try {
+      for (long sequence : sequences) {
+        stmnt.setLong(1, sequence);
+        stmnt.setInt(2, WhitelistChange.Type.ADD.ordinal());
+        stmnt.setBytes(3, UUIDBinaryConverter.toBytes(new UUID(0, sequence)));
+        stmnt.setString(4, "Player" + sequence);
+        stmnt.setLong(5, System.currentTimeMillis());
+        stmnt.execute();
+      }
+    } finally {
+      stmnt.close();
+    }
+  }
+}
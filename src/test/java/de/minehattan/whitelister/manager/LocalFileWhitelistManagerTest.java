@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minehattan.whitelister.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the {@link LocalFileWhitelistManager}. A manager that is not closed
+ * before the files are opened again simulates a crash.
+ */
+public class LocalFileWhitelistManagerTest {
+
+  private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+  private static final UUID FIRST = new UUID(0, 1);
+  private static final UUID SECOND = new UUID(0, 2);
+  private static final UUID THIRD = new UUID(0, 3);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final List<LocalFileWhitelistManager> managers = new ArrayList<LocalFileWhitelistManager>();
+  private File snapshotFile;
+  private File journalFile;
+
+  /**
+   * Chooses the files.
+   */
+  @Before
+  public void setUp() {
+    snapshotFile = new File(folder.getRoot(), "whitelist.dat");
+    journalFile = new File(folder.getRoot(), "whitelist.journal");
+  }
+
+  /**
+   * Closes all managers.
+   */
+  @After
+  public void tearDown() {
+    for (LocalFileWhitelistManager manager : managers) {
+      manager.close();
+    }
+  }
+
+  @Test
+  public void roundTripThroughSnapshotAndJournal() throws IOException {
+    LocalFileWhitelistManager manager = open(1000);
+    assertEquals(2, manager.addAll(ImmutableMap.of(FIRST, "First", SECOND, "Second")));
+    manager.compact();
+    manager.add(THIRD, "Third");
+    manager.updateName(FIRST, "Renamed");
+    manager.remove(SECOND);
+    assertTrue(journalFile.length() > 0);
+
+    LocalFileWhitelistManager reloaded = open(1000);
+    assertEquals(ImmutableMap.of(FIRST, "Renamed", THIRD, "Third"), reloaded.getWhitelist());
+    assertEquals(FIRST, reloaded.getUniqueID("RENAMED"));
+    assertEquals(0, reloaded.getCutOffBytes());
+  }
+
+  @Test
+  public void closeCompactsTheJournal() throws IOException {
+    LocalFileWhitelistManager manager = open(1000);
+    manager.addAll(ImmutableMap.of(FIRST, "First", SECOND, "Second"));
+    manager.close();
+    assertEquals(0, journalFile.length());
+
+    assertEquals(ImmutableMap.of(FIRST, "First", SECOND, "Second"), open(1000).getWhitelist());
+  }
+
+  @Test
+  public void truncatedLastRecordIsCutOff() throws IOException {
+    LocalFileWhitelistManager manager = open(1000);
+    manager.addAll(ImmutableMap.of(FIRST, "First", SECOND, "Second"));
+    long complete = journalFile.length();
+    FileOutputStream output = new FileOutputStream(journalFile, true);
+    try {
+      output.write(new byte[] {(byte) WhitelistChange.Type.ADD.ordinal(), 1, 2, 3, 4});
+    } finally {
+      output.close();
+    }
+
+    LocalFileWhitelistManager reloaded = open(1000);
+    assertEquals(ImmutableMap.of(FIRST, "First", SECOND, "Second"), reloaded.getWhitelist());
+    assertEquals(5, reloaded.getCutOffBytes());
+    assertEquals(complete, journalFile.length());
+
+    reloaded.add(THIRD, "Third");
+    assertEquals(ImmutableMap.of(FIRST, "First", SECOND, "Second", THIRD, "Third"), open(1000).getWhitelist());
+  }
+
+  @Test
+  public void compactionFollowedByReload() throws Exception {
+    LocalFileWhitelistManager manager = open(3);
+    manager.addAll(ImmutableMap.of(FIRST, "First", SECOND, "Second", THIRD, "Third"));
+    // the compaction runs in the background and is done once the rotated journal is deleted
+    File rotatedFile = new File(journalFile.getPath() + ".old");
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+    while ((!snapshotFile.isFile() || rotatedFile.exists()) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(snapshotFile.isFile());
+    assertFalse(rotatedFile.exists());
+    assertEquals(0, journalFile.length());
+    // stays below the threshold, so no other compaction runs while the files are read again
+    manager.remove(FIRST);
+
+    assertEquals(ImmutableMap.of(SECOND, "Second", THIRD, "Third"), open(1000).getWhitelist());
+  }
+
+  @Test
+  public void journalOfUnfinishedCompactionIsReplayed() throws IOException {
+    LocalFileWhitelistManager manager = open(1000);
+    manager.add(FIRST, "First");
+    File rotatedFile = new File(journalFile.getPath() + ".old");
+    assertTrue(journalFile.renameTo(rotatedFile));
+
+    LocalFileWhitelistManager reloaded = open(1000);
+    assertEquals(ImmutableMap.of(FIRST, "First"), reloaded.getWhitelist());
+    reloaded.add(SECOND, "Second");
+    reloaded.compact();
+    assertFalse(rotatedFile.exists());
+    assertEquals(0, journalFile.length());
+
+    assertEquals(ImmutableMap.of(FIRST, "First", SECOND, "Second"), open(1000).getWhitelist());
+  }
+
+  /**
+   * Opens a manager on the files.
+   *
+   * @param compactThreshold the number of journal records that triggers a compaction
+   * @return the manager
+   * @throws IOException if the files cannot be read
+   */
+  private LocalFileWhitelistManager open(int compactThreshold) throws IOException {
+    LocalFileWhitelistManager manager = new LocalFileWhitelistManager(snapshotFile, journalFile, compactThreshold,
+                                                                      NEVER);
+    managers.add(manager);
+    return manager;
+  }
+}
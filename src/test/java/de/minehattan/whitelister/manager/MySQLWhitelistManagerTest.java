@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minehattan.whitelister.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tests the {@link MySQLWhitelistManager} on an embedded H2 database in
+ * MySQL mode, with and without batches that report unknown update counts.
+ */
+public class MySQLWhitelistManagerTest {
+
+  private static final String TABLE = "whitelist";
+  private static final UUID FIRST = new UUID(0, 1);
+  private static final UUID SECOND = new UUID(0, 2);
+  private static final UUID THIRD = new UUID(0, 3);
+
+  private String dsn;
+  private MySQLWhitelistManager manager;
+
+  /**
+   * Creates the tables in a new in-memory database and opens a manager on
+   * them.
+   *
+   * @param rewriting whether batches report unknown update counts
+   */
+  private void open(boolean rewriting) {
+    dsn = "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+    String url = rewriting ? RewritingDriver.wrap(dsn) : dsn;
+    manager = new MySQLWhitelistManager(new ConnectionPool(url, "sa", "", 0, 1, 60000, 5000, 5000), TABLE);
+    manager.updateSchema();
+    assertTrue(manager.enableChangeLog());
+  }
+
+  /**
+   * Closes the manager.
+   */
+  @After
+  public void tearDown() {
+    RewritingDriver.setBeforeBatch(null);
+    manager.close();
+  }
+
+  @Test
+  public void importsDuplicates() {
+    open(false);
+    importDuplicates();
+  }
+
+  @Test
+  public void importsDuplicatesWithRewrittenBatches() {
+    open(true);
+    importDuplicates();
+  }
+
+  @Test
+  public void concurrentlyAddedEntriesAreNotCountedWithRewrittenBatches() throws SQLException {
+    open(true);
+    RewritingDriver.setBeforeBatch(new Runnable() {
+      @Override
+      public void run() {
+        RewritingDriver.setBeforeBatch(null);
+        insert(SECOND, "OtherServer");
+      }
+    });
+    assertEquals(1, manager.addAll(ImmutableMap.of(FIRST, "First", SECOND, "Second")));
+    assertEquals(ImmutableMap.of(FIRST, "First", SECOND, "OtherServer"), manager.getWhitelist());
+    assertEquals(1, manager.getChangesSince(0, 10).size());
+  }
+
+  @Test
+  public void removesOnlyPresentEntries() {
+    open(false);
+    removeAbsentEntries();
+  }
+
+  @Test
+  public void removesOnlyPresentEntriesWithRewrittenBatches() {
+    open(true);
+    removeAbsentEntries();
+  }
+
+  @Test
+  public void logsOnlyRenamedEntries() {
+    open(false);
+    renameAbsentEntries();
+  }
+
+  @Test
+  public void logsOnlyRenamedEntriesWithRewrittenBatches() {
+    open(true);
+    renameAbsentEntries();
+  }
+
+  /**
+   * Imports entries that are partly on the whitelist already and checks that
+   * only the new ones are counted and recorded in the change log.
+   */
+  private void importDuplicates() {
+    assertEquals(2, manager.addAll(ImmutableMap.of(FIRST, "First", SECOND, "Second")));
+    assertEquals(1, manager.addAll(ImmutableMap.of(FIRST, "Renamed", SECOND, "Second", THIRD, "Third")));
+    assertEquals(0, manager.addAll(ImmutableMap.of(THIRD, "Third")));
+    assertEquals(ImmutableMap.of(FIRST, "First", SECOND, "Second", THIRD, "Third"), manager.getWhitelist());
+
+    List<UUID> added = new ArrayList<UUID>();
+    for (WhitelistChange change : manager.getChangesSince(0, 10)) {
+      assertEquals(WhitelistChange.Type.ADD, change.getType());
+      added.add(change.getUniqueId());
+    }
+    assertEquals(3, added.size());
+    assertEquals(THIRD, added.get(2));
+  }
+
+  /**
+   * Removes entries that are partly not on the whitelist and checks that
+   * only the removed ones are counted and recorded in the change log.
+   */
+  private void removeAbsentEntries() {
+    assertEquals(2, manager.addAll(ImmutableMap.of(FIRST, "First", SECOND, "Second")));
+    assertEquals(1, manager.removeAll(ImmutableList.of(FIRST, THIRD)));
+    assertEquals(0, manager.removeAll(ImmutableList.of(FIRST, THIRD)));
+    assertEquals(ImmutableMap.of(SECOND, "Second"), manager.getWhitelist());
+
+    List<WhitelistChange> changes = manager.getChangesSince(0, 10);
+    assertEquals(3, changes.size());
+    assertEquals(WhitelistChange.Type.REMOVE, changes.get(2).getType());
+    assertEquals(FIRST, changes.get(2).getUniqueId());
+  }
+
+  /**
+   * Renames entries that are partly not on the whitelist and checks that
+   * only the renamed ones are recorded in the change log.
+   */
+  private void renameAbsentEntries() {
+    assertEquals(1, manager.addAll(ImmutableMap.of(FIRST, "First")));
+    assertEquals(1, manager.updateNames(ImmutableMap.of(FIRST, "Renamed", SECOND, "Second")));
+    assertEquals(ImmutableMap.of(FIRST, "Renamed"), manager.getWhitelist());
+
+    List<WhitelistChange> changes = manager.getChangesSince(0, 10);
+    assertEquals(2, changes.size());
+    assertEquals(WhitelistChange.Type.RENAME, changes.get(1).getType());
+    assertEquals(FIRST, changes.get(1).getUniqueId());
+  }
+
+  @Test
+  public void namesWrittenByOlderBuildsAreRepairedOnStartup() {
+    open(false);
+    assertEquals(1, manager.addAll(ImmutableMap.of(FIRST, "First")));
+    execute("UPDATE `" + TABLE + "` SET `minecraft-name` = ? WHERE `minecraft-uuid` = ?;", "Renamed",
+            UUIDBinaryConverter.toBytes(FIRST));
+    execute("INSERT INTO `" + TABLE + "` (`minecraft-uuid`, `minecraft-name`) VALUES (?, ?);",
+            UUIDBinaryConverter.toBytes(SECOND), "Second");
+
+    manager.updateSchema();
+    assertEquals(FIRST, manager.getUniqueID("renamed"));
+    assertEquals(SECOND, manager.getUniqueID("SECOND"));
+  }
+
+  /**
+   * Inserts an entry through a separate connection, as another server
+   * would.
+   *
+   * @param uniqueId the UUID
+   * @param name     the name
+   */
+  private void insert(UUID uniqueId, String name) {
+    execute("INSERT INTO `" + TABLE + "` (`minecraft-uuid`, `minecraft-name`, `minecraft-name-lower`) "
+            + "VALUES (?, ?, ?);", UUIDBinaryConverter.toBytes(uniqueId), name, name.toLowerCase());
+  }
+
+  /**
+   * Executes a statement through a separate connection, as another server
+   * would.
+   *
+   * @param sql        the statement
+   * @param parameters the parameters of the statement
+   */
+  private void execute(String sql, Object... parameters) {
+    try {
+      Connection conn = DriverManager.getConnection(dsn, "sa", "");
+      try {
+        PreparedStatement stmnt = conn.prepareStatement(sql);
+        for (int i = 0; i < parameters.length; i++) {
+          stmnt.setObject(i + 1, parameters[i]);
+        }
+        stmnt.execute();
+      } finally {
+        conn.close();
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2013 - 2015, Whitelister team and contributors
+ *
+ * This file is part of Whitelister.
+ *
+ * Whitelister is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Whitelister is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Whitelister. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.minehattan.whitelister.manager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A JDBC driver for {@code jdbc:rewrite:} URLs that delegates to the driver
+ * of the remaining URL, but reports {@link Statement#SUCCESS_NO_INFO} for
+ * every statement of a batch, just like MySQL Connector/J does when it
+ * rewrites batches into a single statement.
+ */
+final class RewritingDriver implements Driver {
+
+  /**
+   * The prefix of the URLs handled by this driver.
+   */
+  static final String PREFIX = "jdbc:rewrite:";
+
+  @Nullable
+  private static volatile Runnable beforeBatch;
+
+  static {
+    try {
+      DriverManager.registerDriver(new RewritingDriver());
+    } catch (SQLException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /**
+   * Gets the URL that opens the given URL through this driver.
+   *
+   * @param url the URL of the actual database
+   * @return the URL
+   */
+  static String wrap(String url) {
+    return PREFIX + url.substring("jdbc:".length());
+  }
+
+  /**
+   * Sets the task that is run before each batch is executed, e.g. to
+   * simulate another server that changes the table concurrently.
+   *
+   * @param task the task - can be {@code null}
+   */
+  static void setBeforeBatch(@Nullable Runnable task) {
+    beforeBatch = task;
+  }
+
+  @Override
+  public Connection connect(String url, Properties info) throws SQLException {
+    if (!acceptsURL(url)) {
+      return null;
+    }
+    Connection conn = DriverManager.getConnection("jdbc:" + url.substring(PREFIX.length()), info);
+    return proxy(Connection.class, conn);
+  }
+
+  @Override
+  public boolean acceptsURL(String url) {
+    return url.startsWith(PREFIX);
+  }
+
+  @Override
+  public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+    return new DriverPropertyInfo[0];
+  }
+
+  @Override
+  public int getMajorVersion() {
+    return 1;
+  }
+
+  @Override
+  public int getMinorVersion() {
+    return 0;
+  }
+
+  @Override
+  public boolean jdbcCompliant() {
+    return false;
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    throw new SQLFeatureNotSupportedException();
+  }
+
+  /**
+   * Wraps the given connection or statement, so that prepared statements
+   * are wrapped as well and batches report unknown update counts.
+   *
+   * @param type     the interface to implement
+   * @param delegate the wrapped object
+   * @param <T>      the type of the interface
+   * @return the proxy
+   */
+  private static <T> T proxy(Class<T> type, final Object delegate) {
+    return type.cast(Proxy.newProxyInstance(RewritingDriver.class.getClassLoader(), new Class<?>[]{type},
+                                            new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getName().equals("executeBatch")) {
+          Runnable task = beforeBatch;
+          if (task != null) {
+            task.run();
+          }
+        }
+        Object result;
+        try {
+          result = method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+          throw e.getCause();
+        }
+        if (method.getName().equals("executeBatch")) {
+          int[] counts = new int[((int[]) result).length];
+          Arrays.fill(counts, Statement.SUCCESS_NO_INFO);
+          return counts;
+        }
+        if (result instanceof PreparedStatement) {
+          return proxy(PreparedStatement.class, result);
+        }
+        return result;
+      }
+    }));
+  }
+}